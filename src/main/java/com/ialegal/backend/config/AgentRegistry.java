@@ -0,0 +1,70 @@
+package com.ialegal.backend.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Agentes de IA configurados en app.agents.*: cada uno con su id (el agentType de la API),
+ * la tabla de historial donde N8N guarda sus mensajes y su webhook.
+ * Agregar un asistente solo requiere una entrada nueva en la configuración.
+ * Un agentType desconocido es un error de la petición, no se cambia por otro agente.
+ */
+@Component
+@Slf4j
+public class AgentRegistry {
+
+    // El nombre de tabla se concatena en el SQL: solo identificadores simples
+    private static final Pattern TABLE_NAME = Pattern.compile("[a-z_][a-z0-9_]*");
+
+    public record Agent(String id, String table, String webhookUrl) {
+    }
+
+    private final Map<String, Agent> agents;
+
+    public AgentRegistry(Environment environment) {
+        Map<String, Agent> configured = Binder.get(environment)
+                .bind("app.agents", Bindable.mapOf(String.class, Agent.class))
+                .orElseThrow(() -> new IllegalStateException("No agents configured under app.agents"));
+
+        Map<String, Agent> byId = new LinkedHashMap<>();
+        configured.forEach((name, agent) -> {
+            if (agent.id() == null || agent.table() == null) {
+                throw new IllegalStateException("Agent app.agents." + name + " needs both id and table");
+            }
+            if (!TABLE_NAME.matcher(agent.table()).matches()) {
+                throw new IllegalStateException("Invalid history table for agent " + agent.id() + ": " + agent.table());
+            }
+            if (byId.put(agent.id(), agent) != null) {
+                throw new IllegalStateException("Duplicate agent id: " + agent.id());
+            }
+        });
+        this.agents = Collections.unmodifiableMap(byId);
+        log.info("Configured agents: {}", agents.keySet());
+    }
+
+    public Agent get(String agentType) {
+        Agent agent = agents.get(agentType);
+        if (agent == null) {
+            throw new IllegalArgumentException("Unknown agent type: " + agentType);
+        }
+        return agent;
+    }
+
+    public List<String> ids() {
+        return List.copyOf(agents.keySet());
+    }
+
+    public Collection<Agent> all() {
+        return agents.values();
+    }
+}
@@ -0,0 +1,108 @@
+package com.ialegal.backend.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pool de Hikari con una compuerta delante: cada conexión espera turno en un semáforo
+ * justo (orden de llegada) con tantos permisos como conexiones tiene el pool, y el permiso
+ * se devuelve al cerrar la conexión. Con hilos virtuales puede haber miles de requests
+ * esperando base de datos a la vez; así hacen cola en orden y con su propio plazo
+ * (app.datasource.gate.max-wait-ms) en lugar de agotar el connection-timeout del pool.
+ */
+@Slf4j
+public class ConcurrencyGatedDataSource extends HikariDataSource implements MeterBinder {
+
+    private final long maxWaitMs;
+
+    // Se crea al pedir la primera conexión, cuando el tamaño del pool ya está configurado
+    private volatile Semaphore gate;
+
+    public ConcurrencyGatedDataSource(long maxWaitMs) {
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Semaphore permits = gate();
+        try {
+            if (!permits.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException(
+                        "Timed out after " + maxWaitMs + " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            return releasingOnClose(super.getConnection(), permits);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("db.gate.waiting", this, dataSource -> dataSource.gate().getQueueLength())
+                .description("Threads waiting for a database connection permit")
+                .register(registry);
+        Gauge.builder("db.gate.available", this, dataSource -> dataSource.gate().availablePermits())
+                .description("Database connection permits available")
+                .register(registry);
+    }
+
+    private Semaphore gate() {
+        Semaphore current = gate;
+        if (current == null) {
+            synchronized (this) {
+                current = gate;
+                if (current == null) {
+                    current = new Semaphore(getMaximumPoolSize(), true);
+                    gate = current;
+                    log.info("Database connection gate enabled with {} permits", getMaximumPoolSize());
+                }
+            }
+        }
+        return current;
+    }
+
+    private static Connection releasingOnClose(Connection connection, Semaphore permits) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "close" -> {
+                        try {
+                            connection.close();
+                        } finally {
+                            if (released.compareAndSet(false, true)) {
+                                permits.release();
+                            }
+                        }
+                        yield null;
+                    }
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> {
+                        try {
+                            yield method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    }
+                });
+    }
+}
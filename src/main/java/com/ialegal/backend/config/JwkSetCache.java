@@ -0,0 +1,99 @@
+package com.ialegal.backend.config;
+
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * JWK set de Keycloak en memoria: se carga al arrancar y se refresca en segundo plano,
+ * así la validación de tokens nunca espera una descarga en el camino de la request.
+ * Solo si llega un token firmado con una clave desconocida (rotación) se recarga en
+ * línea, como mucho una vez por intervalo mínimo.
+ * Con app.security.jwk-set-file se lee de un fichero local en lugar de Keycloak.
+ */
+@Component
+@Slf4j
+public class JwkSetCache implements JWKSource<SecurityContext> {
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 5000;
+    private static final int SIZE_LIMIT_BYTES = 512 * 1024;
+
+    private final ResourceLoader resourceLoader;
+    private final String jwkSetUri;
+    private final String jwkSetFile;
+    private final long minReloadIntervalMs;
+
+    private volatile JWKSet jwkSet;
+    private volatile long lastLoadAttempt;
+
+    public JwkSetCache(ResourceLoader resourceLoader,
+                       @Value("${spring.security.oauth2.resourceserver.jwt.jwk-set-uri:}") String jwkSetUri,
+                       @Value("${app.security.jwk-set-file:}") String jwkSetFile,
+                       @Value("${app.security.jwk-min-reload-interval-ms:30000}") long minReloadIntervalMs) {
+        this.resourceLoader = resourceLoader;
+        this.jwkSetUri = jwkSetUri;
+        this.jwkSetFile = jwkSetFile;
+        this.minReloadIntervalMs = minReloadIntervalMs;
+        // Carga inicial al crear el bean: si Keycloak no responde se arranca igual y se reintenta
+        reload();
+    }
+
+    @Scheduled(fixedDelayString = "${app.security.jwk-refresh-ms:300000}",
+            initialDelayString = "${app.security.jwk-refresh-ms:300000}")
+    public void refresh() {
+        reload();
+    }
+
+    @Override
+    public List<JWK> get(JWKSelector jwkSelector, SecurityContext context) throws KeySourceException {
+        JWKSet current = jwkSet;
+        List<JWK> matches = current != null ? jwkSelector.select(current) : List.of();
+        if (matches.isEmpty() && System.currentTimeMillis() - lastLoadAttempt >= minReloadIntervalMs) {
+            // Clave desconocida: posible rotación en Keycloak
+            log.info("No matching JWK for token, reloading JWK set");
+            current = reload();
+            matches = current != null ? jwkSelector.select(current) : List.of();
+        }
+        if (current == null) {
+            throw new KeySourceException("JWK set not available");
+        }
+        return matches;
+    }
+
+    private synchronized JWKSet reload() {
+        lastLoadAttempt = System.currentTimeMillis();
+        try {
+            JWKSet loaded;
+            if (StringUtils.hasText(jwkSetFile)) {
+                Resource resource = resourceLoader.getResource(jwkSetFile);
+                try (InputStream in = resource.getInputStream()) {
+                    loaded = JWKSet.load(in);
+                }
+            } else {
+                loaded = JWKSet.load(new URL(jwkSetUri), CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS, SIZE_LIMIT_BYTES);
+            }
+            jwkSet = loaded;
+            log.info("Loaded JWK set with {} keys from {}", loaded.getKeys().size(),
+                    StringUtils.hasText(jwkSetFile) ? jwkSetFile : jwkSetUri);
+        } catch (Exception e) {
+            // Se sigue usando el último JWK set válido
+            log.error("Error loading JWK set: {}", e.getMessage());
+        }
+        return jwkSet;
+    }
+}
@@ -1,6 +1,8 @@
 package com.ialegal.backend.config;
 
 import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -18,11 +20,27 @@ import java.util.Properties;
 @EnableJpaRepositories(basePackages = "com.ialegal.backend.repository")
 public class MultiDataSourceConfig {
 
+    // Compuerta de conexiones para el modo de hilos virtuales (ver ConcurrencyGatedDataSource)
+    @Value("${app.datasource.gate.enabled:false}")
+    private boolean gateEnabled;
+
+    @Value("${app.datasource.gate.max-wait-ms:120000}")
+    private long gateMaxWaitMs;
+
     @Bean
     @Primary
     @ConfigurationProperties("spring.datasource")
     public DataSource dataSource() {
-        return new HikariDataSource();
+        return gateEnabled ? new ConcurrencyGatedDataSource(gateMaxWaitMs) : new HikariDataSource();
+    }
+
+    @Bean
+    public MeterBinder dataSourceGateMetrics() {
+        return registry -> {
+            if (dataSource() instanceof ConcurrencyGatedDataSource gatedDataSource) {
+                gatedDataSource.bindTo(registry);
+            }
+        };
     }
 
     @Bean
@@ -0,0 +1,54 @@
+package com.ialegal.backend.config;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import java.time.Duration;
+
+/**
+ * Pool R2DBC para la lectura no bloqueante del historial de N8N.
+ * Convive con el DataSource de JPA (que sigue atendiendo escrituras y el resto de endpoints);
+ * la autoconfiguración R2DBC de Spring Boot está excluida en application.yml para que
+ * no cree un segundo gestor de transacciones.
+ * Se activa con app.history.read-stack=reactive.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.history.read-stack", havingValue = "reactive")
+public class ReactiveHistoryConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionPool historyConnectionFactory(
+            @Value("${app.history.r2dbc.url}") String url,
+            @Value("${spring.datasource.username}") String username,
+            @Value("${spring.datasource.password}") String password,
+            @Value("${app.history.r2dbc.pool.initial-size:2}") int initialSize,
+            @Value("${app.history.r2dbc.pool.max-size:20}") int maxSize,
+            @Value("${app.history.r2dbc.pool.max-acquire-time-ms:30000}") long maxAcquireTimeMs) {
+
+        ConnectionFactory connectionFactory = ConnectionFactories.get(ConnectionFactoryOptions.parse(url)
+                .mutate()
+                .option(ConnectionFactoryOptions.USER, username)
+                .option(ConnectionFactoryOptions.PASSWORD, password)
+                .build());
+
+        return new ConnectionPool(ConnectionPoolConfiguration.builder(connectionFactory)
+                .name("history-r2dbc")
+                .initialSize(initialSize)
+                .maxSize(maxSize)
+                .maxAcquireTime(Duration.ofMillis(maxAcquireTimeMs))
+                .build());
+    }
+
+    @Bean
+    public DatabaseClient historyDatabaseClient(ConnectionPool historyConnectionFactory) {
+        return DatabaseClient.create(historyConnectionFactory);
+    }
+}
@@ -1,13 +1,23 @@
 package com.ialegal.backend.config;
 
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import jakarta.servlet.DispatcherType;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
 import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.util.StringUtils;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
@@ -20,7 +30,8 @@ import java.util.List;
 public class SecurityConfig {
 
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http,
+                                           @Value("${app.security.actuator-role:ADMIN}") String actuatorRole) throws Exception {
         http
                 // Deshabilitar CSRF para APIs REST
                 .csrf(csrf -> csrf.disable())
@@ -33,10 +44,16 @@ public class SecurityConfig {
 
                 // Configuración de autorización
                 .authorizeHttpRequests(auth -> auth
+                        // Despachos asíncronos (SSE) ya fueron autorizados en la request original
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+
                         // Endpoints públicos
                         .requestMatchers("/api/sessions/health").permitAll()
                         .requestMatchers("/h2-console/**").permitAll() // Solo para desarrollo
-                        .requestMatchers("/actuator/**").permitAll() // Para monitoring
+                        .requestMatchers("/actuator/health", "/actuator/health/**").permitAll() // Health checks
+
+                        // Métricas y demás endpoints de actuator: nombres, tags y tiempos internos
+                        .requestMatchers("/actuator/**").hasRole(actuatorRole)
 
                         // Endpoints que requieren autenticación
                         .requestMatchers("/api/sessions/**").authenticated()
@@ -90,7 +107,10 @@ public class SecurityConfig {
                 "Content-Type",
                 "X-Requested-With",
                 "Access-Control-Allow-Origin",
-                "Access-Control-Allow-Credentials"
+                "Access-Control-Allow-Credentials",
+                "X-Next-Cursor",
+                "X-Total-Count",
+                "ETag"
         ));
 
         // Tiempo de cache para preflight
@@ -101,6 +121,27 @@ public class SecurityConfig {
         return source;
     }
 
+    /**
+     * Decoder de JWT con claves del JwkSetCache (sin descargas en el camino de la request)
+     * y caché de tokens ya validados
+     */
+    @Bean
+    public JwtDecoder jwtDecoder(JwkSetCache jwkSetCache,
+                                 @Value("${spring.security.oauth2.resourceserver.jwt.issuer-uri:}") String issuerUri,
+                                 @Value("${app.security.token-cache.max-size:10000}") long tokenCacheSize) {
+        DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
+        jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.RS256, jwkSetCache));
+        // Los claims (exp, nbf, iss) los valida el validador de Spring
+        jwtProcessor.setJWTClaimsSetVerifier((claims, context) -> {
+        });
+
+        NimbusJwtDecoder decoder = new NimbusJwtDecoder(jwtProcessor);
+        decoder.setJwtValidator(StringUtils.hasText(issuerUri)
+                ? JwtValidators.createDefaultWithIssuer(issuerUri)
+                : JwtValidators.createDefault());
+        return new CachingJwtDecoder(decoder, tokenCacheSize);
+    }
+
     @Bean
     public JwtAuthenticationConverter jwtAuthenticationConverter() {
         JwtGrantedAuthoritiesConverter jwtGrantedAuthoritiesConverter = new JwtGrantedAuthoritiesConverter();
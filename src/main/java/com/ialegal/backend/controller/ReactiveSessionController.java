@@ -0,0 +1,109 @@
+package com.ialegal.backend.controller;
+
+import com.ialegal.backend.dto.MessageDto;
+import com.ialegal.backend.dto.SessionDto;
+import com.ialegal.backend.service.ReactiveSessionService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+
+import java.util.Map;
+
+import static com.ialegal.backend.controller.SessionController.extractUserIdFromAuth;
+
+/**
+ * Endpoints de lectura del historial sobre R2DBC: no ocupan un hilo mientras esperan a la base.
+ * Con Accept: application/x-ndjson cada elemento se escribe en cuanto llega la fila;
+ * con application/json se responde el array completo.
+ * Se activa con app.history.read-stack=reactive.
+ */
+@RestController
+@RequestMapping("/api/reactive/sessions")
+@ConditionalOnProperty(name = "app.history.read-stack", havingValue = "reactive")
+@RequiredArgsConstructor
+@Slf4j
+public class ReactiveSessionController {
+
+    private final ReactiveSessionService reactiveSessionService;
+
+    /**
+     * Sesiones por tipo de agente, por última actividad
+     * before es el lastMessageId a partir del cual continuar (exclusivo)
+     */
+    @GetMapping(value = "/agent/{agentType}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<SessionDto> getUserSessionsByAgent(
+            @PathVariable String agentType,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Long before,
+            Authentication authentication) {
+
+        String userId = extractUserIdFromAuth(authentication);
+        log.debug("Streaming sessions for user: {} and agent: {}", userId, agentType);
+        return reactiveSessionService.getUserSessionsByAgent(userId, agentType, limit, before);
+    }
+
+    /**
+     * Mensajes de una sesión, en orden ascendente
+     * Requiere el agentType como query parameter; before/after paginan por id
+     */
+    @GetMapping(value = "/{sessionId}/messages", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<MessageDto> getSessionMessages(
+            @PathVariable String sessionId,
+            @RequestParam String agentType,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Long after,
+            Authentication authentication) {
+
+        String userId = extractUserIdFromAuth(authentication);
+        log.debug("Streaming messages for session: {} with agent: {}", sessionId, agentType);
+        return reactiveSessionService.getSessionMessages(sessionId, userId, agentType, limit, before, after);
+    }
+
+    /**
+     * Buscar sesiones por contenido, ordenadas por relevancia
+     * Requiere el agentType como query parameter
+     */
+    @GetMapping(value = "/search", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<SessionDto> searchSessions(
+            @RequestParam String query,
+            @RequestParam String agentType,
+            @RequestParam(required = false) Integer limit,
+            Authentication authentication) {
+
+        String userId = extractUserIdFromAuth(authentication);
+        log.debug("Streaming search for user: {} with query: {} and agent: {}", userId, query, agentType);
+        return reactiveSessionService.searchSessions(userId, agentType, query, limit);
+    }
+
+    /**
+     * Manejo de errores
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, Object>> handleIllegalArgumentException(IllegalArgumentException ex) {
+        log.error("Validation error: ", ex);
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of(
+                        "error", "Invalid request: " + ex.getMessage(),
+                        "timestamp", System.currentTimeMillis()
+                ));
+    }
+
+    @ExceptionHandler(RuntimeException.class)
+    public ResponseEntity<Map<String, Object>> handleRuntimeException(RuntimeException ex) {
+        log.error("Runtime error: ", ex);
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of(
+                        "error", ex.getMessage(),
+                        "timestamp", System.currentTimeMillis()
+                ));
+    }
+}
@@ -3,18 +3,27 @@ package com.ialegal.backend.controller;
 import com.ialegal.backend.dto.*;
 import com.ialegal.backend.service.SessionService;
 import com.ialegal.backend.service.N8nSessionService;
+import com.ialegal.backend.service.SessionJsonStreamer;
+import com.ialegal.backend.service.SessionStreamService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 @RestController
 @RequestMapping("/api/sessions")
@@ -22,8 +31,15 @@ import java.util.Map;
 @Slf4j
 public class SessionController {
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
     private final SessionService sessionService;
     private final N8nSessionService n8nSessionService;
+    private final SessionStreamService sessionStreamService;
+    private final SessionJsonStreamer sessionJsonStreamer;
 
     /**
      * Crear nueva sesión
@@ -48,29 +64,82 @@ public class SessionController {
     @GetMapping
     public ResponseEntity<List<SessionDto>> getUserSessions(
             @RequestParam(required = false) String agentType,
-            Authentication authentication) {
+            Authentication authentication,
+            WebRequest webRequest) {
 
         String userId = extractUserIdFromAuth(authentication);
         log.debug("Getting sessions for user: {} and agent: {}", userId, agentType);
 
         // Si no se especifica agentType, usar 'ia-general' por defecto
         String agent = agentType != null ? agentType : "ia-general";
+        VersionStampDto version = n8nSessionService.getSessionListVersion(userId, agent);
+        if (isNotModified(webRequest, version, "list", agent)) {
+            return null;
+        }
+
         List<SessionDto> sessions = n8nSessionService.getUserSessionsByAgent(userId, agent);
-        return ResponseEntity.ok(sessions);
+        return ResponseEntity.ok().cacheControl(REVALIDATE).body(sessions);
     }
 
     /**
      * Obtener sesiones por tipo de agente
+     * Con limit y/o after se pagina por cursor; el cursor de la página siguiente
+     * se devuelve en el header X-Next-Cursor
      */
     @GetMapping("/agent/{agentType}")
     public ResponseEntity<List<SessionDto>> getUserSessionsByAgent(
             @PathVariable String agentType,
-            Authentication authentication) {
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String after,
+            Authentication authentication,
+            WebRequest webRequest) {
 
         String userId = extractUserIdFromAuth(authentication);
         log.debug("Getting sessions for user: {} and agent: {}", userId, agentType);
-        List<SessionDto> sessions = n8nSessionService.getUserSessionsByAgent(userId, agentType);
-        return ResponseEntity.ok(sessions);
+
+        VersionStampDto version = n8nSessionService.getSessionListVersion(userId, agentType);
+        if (isNotModified(webRequest, version, "list", agentType, limit, after)) {
+            return null;
+        }
+
+        if (limit == null && after == null) {
+            List<SessionDto> sessions = n8nSessionService.getUserSessionsByAgent(userId, agentType);
+            return ResponseEntity.ok().cacheControl(REVALIDATE).body(sessions);
+        }
+
+        CursorPageDto<SessionDto> page = n8nSessionService.getUserSessionsByAgentPage(userId, agentType, limit, after);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(REVALIDATE);
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(page.getItems());
+    }
+
+    /**
+     * Sesiones recientes del usuario en todos los agentes, ordenadas por última actividad
+     * La página siguiente se pide con after=X-Next-Cursor
+     */
+    @GetMapping("/recent")
+    public ResponseEntity<List<SessionDto>> getRecentSessions(
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String after,
+            Authentication authentication,
+            WebRequest webRequest) {
+
+        String userId = extractUserIdFromAuth(authentication);
+        log.debug("Getting recent sessions for user: {}", userId);
+
+        VersionStampDto version = n8nSessionService.getRecentSessionsVersion(userId);
+        if (isNotModified(webRequest, version, "recent", limit, after)) {
+            return null;
+        }
+
+        CursorPageDto<SessionDto> page = n8nSessionService.getRecentSessions(userId, limit, after);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(REVALIDATE);
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(page.getItems());
     }
 
     /**
@@ -81,28 +150,128 @@ public class SessionController {
     public ResponseEntity<SessionDto> getSession(
             @PathVariable String sessionId,
             @RequestParam String agentType,
-            Authentication authentication) {
+            Authentication authentication,
+            WebRequest webRequest) {
 
         String userId = extractUserIdFromAuth(authentication);
         log.debug("Getting session: {} for user: {} with agent: {}", sessionId, userId, agentType);
+
+        VersionStampDto version = n8nSessionService.getSessionVersion(sessionId, userId, agentType);
+        if (isNotModified(webRequest, version, "session", sessionId, agentType)) {
+            return null;
+        }
+
         SessionDto session = n8nSessionService.getSession(sessionId, userId, agentType);
-        return ResponseEntity.ok(session);
+        return ResponseEntity.ok().cacheControl(REVALIDATE).body(session);
+    }
+
+    /**
+     * Sesión con todos sus mensajes, escrita desde la base a medida que se lee (stream=true)
+     * Requiere el agentType como query parameter
+     */
+    @GetMapping(value = "/{sessionId}", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamSessionJson(
+            @PathVariable String sessionId,
+            @RequestParam String agentType,
+            Authentication authentication,
+            WebRequest webRequest) {
+
+        String userId = extractUserIdFromAuth(authentication);
+        log.debug("Streaming session: {} for user: {} with agent: {}", sessionId, userId, agentType);
+
+        VersionStampDto version = n8nSessionService.getSessionVersion(sessionId, userId, agentType);
+        if (isNotModified(webRequest, version, "session-stream", sessionId, agentType)) {
+            return null;
+        }
+
+        return ResponseEntity.ok()
+                .cacheControl(REVALIDATE)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(sessionJsonStreamer.streamSession(sessionId, userId, agentType));
     }
 
     /**
      * Obtener mensajes de una sesión
      * Requiere el agentType como query parameter
+     * Por defecto devuelve los últimos mensajes; before/after paginan por id.
+     * El id para la siguiente página va en X-Next-Cursor y el total (si se pide) en X-Total-Count
      */
     @GetMapping("/{sessionId}/messages")
     public ResponseEntity<List<MessageDto>> getSessionMessages(
             @PathVariable String sessionId,
             @RequestParam String agentType,
-            Authentication authentication) {
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "false") boolean includeTotal,
+            Authentication authentication,
+            WebRequest webRequest) {
 
         String userId = extractUserIdFromAuth(authentication);
         log.debug("Getting messages for session: {} with agent: {}", sessionId, agentType);
-        List<MessageDto> messages = n8nSessionService.getSessionMessages(sessionId, userId, agentType);
-        return ResponseEntity.ok(messages);
+
+        VersionStampDto version = n8nSessionService.getSessionVersion(sessionId, userId, agentType);
+        if (isNotModified(webRequest, version, "messages", sessionId, agentType, limit, before, after, includeTotal)) {
+            return null;
+        }
+
+        CursorPageDto<MessageDto> page = n8nSessionService.getSessionMessages(
+                sessionId, userId, agentType, limit, before, after, includeTotal);
+
+        // Siempre se revalida con el ETag: una página antigua también cambia si se borra la sesión
+        // o si confirma tarde un mensaje con un id menor
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(REVALIDATE);
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        if (page.getTotalCount() != null) {
+            response.header(TOTAL_COUNT_HEADER, String.valueOf(page.getTotalCount()));
+        }
+        return response.body(page.getItems());
+    }
+
+    /**
+     * Todos los mensajes de una sesión (o los posteriores a after), escritos desde la base
+     * a medida que se leen (stream=true)
+     * Requiere el agentType como query parameter
+     */
+    @GetMapping(value = "/{sessionId}/messages", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamSessionMessagesJson(
+            @PathVariable String sessionId,
+            @RequestParam String agentType,
+            @RequestParam(required = false) Long after,
+            Authentication authentication,
+            WebRequest webRequest) {
+
+        String userId = extractUserIdFromAuth(authentication);
+        log.debug("Streaming messages for session: {} with agent: {}", sessionId, agentType);
+
+        VersionStampDto version = n8nSessionService.getSessionVersion(sessionId, userId, agentType);
+        if (isNotModified(webRequest, version, "messages-stream", sessionId, agentType, after)) {
+            return null;
+        }
+
+        return ResponseEntity.ok()
+                .cacheControl(REVALIDATE)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(sessionJsonStreamer.streamSessionMessages(sessionId, userId, agentType, after));
+    }
+
+    /**
+     * Stream (SSE) de mensajes nuevos de una sesión
+     * Requiere el agentType como query parameter; al reconectar, EventSource manda Last-Event-ID
+     * y se reenvían los mensajes posteriores a ese id
+     */
+    @GetMapping(value = "/{sessionId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamSession(
+            @PathVariable String sessionId,
+            @RequestParam String agentType,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+            Authentication authentication) {
+
+        String userId = extractUserIdFromAuth(authentication);
+        log.debug("Opening message stream for session: {} with agent: {} after: {}", sessionId, agentType, lastEventId);
+        return sessionStreamService.subscribe(sessionId, userId, agentType, lastEventId);
     }
 
     /**
@@ -123,19 +292,46 @@ public class SessionController {
     }
 
     /**
-     * Buscar sesiones por contenido
-     * Requiere el agentType como query parameter
+     * Buscar sesiones por contenido, ordenadas por relevancia
+     * Con agentType la página siguiente se pide con after=X-Next-Cursor;
+     * sin agentType (o con agentType=all) busca en todos los agentes y devuelve los mejores resultados
      */
     @GetMapping("/search")
     public ResponseEntity<List<SessionDto>> searchSessions(
             @RequestParam String query,
-            @RequestParam String agentType,
+            @RequestParam(required = false) String agentType,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String after,
             Authentication authentication) {
 
         String userId = extractUserIdFromAuth(authentication);
         log.debug("Searching sessions for user: {} with query: {} and agent: {}", userId, query, agentType);
-        List<SessionDto> sessions = n8nSessionService.searchSessions(userId, agentType, query);
-        return ResponseEntity.ok(sessions);
+        if (agentType == null || N8nSessionService.ALL_AGENTS.equals(agentType)) {
+            return ResponseEntity.ok(n8nSessionService.searchAllAgents(userId, query, limit));
+        }
+        CursorPageDto<SessionDto> page = n8nSessionService.searchSessions(userId, agentType, query, limit, after);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response.body(page.getItems());
+    }
+
+    /**
+     * Búsqueda semántica: sesiones con mensajes de significado parecido a la consulta
+     * Requiere el agentType como query parameter
+     */
+    @GetMapping("/search/semantic")
+    public ResponseEntity<List<SessionDto>> searchSessionsSemantic(
+            @RequestParam String query,
+            @RequestParam String agentType,
+            @RequestParam(required = false) Integer limit,
+            Authentication authentication) {
+
+        String userId = extractUserIdFromAuth(authentication);
+        log.debug("Semantic search for user: {} with query: {} and agent: {}", userId, query, agentType);
+        return ResponseEntity.ok(n8nSessionService.searchSessionsSemantic(userId, agentType, query, limit));
     }
 
     /**
@@ -168,10 +364,22 @@ public class SessionController {
 
     // Métodos de utilidad
 
+    /**
+     * Evalúa If-None-Match contra un ETag fuerte derivado de la versión del recurso y
+     * de los parámetros de la petición. Si coincide, la respuesta queda en 304.
+     */
+    private boolean isNotModified(WebRequest webRequest, VersionStampDto version, Object... params) {
+        if (version == null) {
+            return false;
+        }
+        String etag = "\"" + version.toETagValue() + "-" + Integer.toHexString(Objects.hash(params)) + "\"";
+        return webRequest.checkNotModified(etag);
+    }
+
     /**
      * Extraer userId del token JWT
      */
-    private String extractUserIdFromAuth(Authentication authentication) {
+    static String extractUserIdFromAuth(Authentication authentication) {
         if (authentication == null || !authentication.isAuthenticated()) {
             throw new RuntimeException("User not authenticated");
         }
@@ -199,6 +407,16 @@ public class SessionController {
     /**
      * Manejo de errores
      */
+    @ExceptionHandler(ResponseStatusException.class)
+    public ResponseEntity<Map<String, Object>> handleResponseStatusException(ResponseStatusException ex) {
+        log.debug("Request rejected: {}", ex.getReason());
+        return ResponseEntity.status(ex.getStatusCode())
+                .body(Map.of(
+                        "error", String.valueOf(ex.getReason()),
+                        "timestamp", System.currentTimeMillis()
+                ));
+    }
+
     @ExceptionHandler(RuntimeException.class)
     public ResponseEntity<Map<String, Object>> handleRuntimeException(RuntimeException ex) {
         log.error("Runtime error: ", ex);
@@ -0,0 +1,18 @@
+package com.ialegal.backend.dto;
+
+import lombok.Data;
+import lombok.Builder;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPageDto<T> {
+    private List<T> items;
+    private String nextCursor; // null cuando no hay más resultados
+    private Long totalCount; // solo si se pidió explícitamente
+}
@@ -1,6 +1,7 @@
 package com.ialegal.backend.dto;
 
 import com.ialegal.backend.entity.ChatMessage;
+import com.ialegal.backend.util.N8nMessageParser;
 import lombok.Data;
 import lombok.Builder;
 import lombok.NoArgsConstructor;
@@ -39,4 +40,28 @@ public class MessageDto {
                 .metadata(message.getMetadata())
                 .build();
     }
-}
\ No newline at end of file
+
+    // Factory method para convertir desde el JSONB crudo de N8N
+    public static MessageDto fromN8nMessage(Long id, String sessionId, String messageJson, LocalDateTime createdAt) {
+        return fromN8nMessage(id, sessionId, N8nMessageParser.parse(messageJson), createdAt);
+    }
+
+    // Factory method para convertir desde un mensaje de N8N ya parseado; createdAt es la columna created_at de la fila
+    public static MessageDto fromN8nMessage(Long id, String sessionId, N8nMessageParser.MessageContent parsed,
+                                            LocalDateTime createdAt) {
+        String content = parsed != null ? parsed.getContent() : null;
+        String type = parsed != null ? parsed.getType() : null;
+
+        return MessageDto.builder()
+                .id(id)
+                .sessionId(sessionId)
+                .content(content)
+                .isUser("human".equals(type))
+                .createdAt(createdAt)
+                .agentResponse("ai".equals(type) ? content : null)
+                .processingTimeMs(null)
+                .errorMessage(null)
+                .metadata(null)
+                .build();
+    }
+}
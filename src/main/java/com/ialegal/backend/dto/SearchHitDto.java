@@ -0,0 +1,19 @@
+package com.ialegal.backend.dto;
+
+import lombok.Data;
+import lombok.Builder;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+/**
+ * Resultado del índice de búsqueda: la sesión y el fragmento que mejor coincide
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SearchHitDto {
+    private String sessionId;
+    private String snippet; // texto del mensaje con las coincidencias resaltadas
+    private float score;
+}
@@ -1,5 +1,6 @@
 package com.ialegal.backend.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.ialegal.backend.entity.ChatSession;
 import lombok.Data;
 import lombok.Builder;
@@ -24,6 +25,9 @@ public class SessionDto {
     private Boolean isActive;
     private List<MessageDto> messages;
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String snippet; // solo en resultados de búsqueda
+
     // Factory method para convertir desde entity
     public static SessionDto fromEntity(ChatSession session) {
         return SessionDto.builder()
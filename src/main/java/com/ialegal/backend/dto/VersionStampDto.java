@@ -0,0 +1,24 @@
+package com.ialegal.backend.dto;
+
+import lombok.Data;
+import lombok.Builder;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+/**
+ * Versión barata de un recurso de historial: los mensajes de N8N son append-only
+ * con id creciente, así que el último id más los contadores identifican el contenido.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class VersionStampDto {
+    private long lastMessageId;
+    private long sessionCount;
+    private long messageCount;
+
+    public String toETagValue() {
+        return lastMessageId + "-" + sessionCount + "-" + messageCount;
+    }
+}
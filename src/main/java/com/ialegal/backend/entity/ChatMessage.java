@@ -2,6 +2,8 @@ package com.ialegal.backend.entity;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -13,6 +15,8 @@ import java.time.LocalDateTime;
 @Entity
 @Table(name = "chat_messages")
 @Data
+@ToString(exclude = "session")
+@EqualsAndHashCode(exclude = "session")
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
@@ -52,6 +56,10 @@ public class ChatMessage {
     @Column(name = "metadata", columnDefinition = "TEXT")
     private String metadata; // JSON string for additional data
 
+    // Id del mensaje en la tabla de N8N cuando lo escribió la proyección (V8)
+    @Column(name = "source_message_id")
+    private Long sourceMessageId;
+
     // Método para obtener el sessionId directamente
     public String getSessionId() {
         return session != null ? session.getSessionId() : null;
@@ -67,11 +75,9 @@ public class ChatMessage {
         if (this.createdAt == null) {
             this.createdAt = LocalDateTime.now();
         }
-
-        // Auto-incrementar el order dentro de la sesión
-        if (this.messageOrder == null && this.session != null) {
-            this.messageOrder = this.session.getMessageCount() + 1;
-        }
+        // messageOrder lo asigna quien crea el mensaje a partir del contador de la sesión
+        // (ChatSessionRepository.incrementMessageCount); calcularlo aquí con messageCount + 1
+        // cargaba la sesión y duplicaba el orden con altas concurrentes
     }
 
     // Builder helper methods
@@ -1,10 +1,13 @@
 package com.ialegal.backend.entity;
 
 import jakarta.persistence.*;
-import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
+import lombok.Setter;
+import lombok.ToString;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
@@ -15,7 +18,12 @@ import java.util.List;
 
 @Entity
 @Table(name = "chat_sessions")
-@Data
+// Sin @Data: equals/hashCode/toString no deben recorrer la colección lazy de mensajes.
+// La identidad es el sessionId, que se asigna al crear la sesión.
+@Getter
+@Setter
+@ToString(exclude = "messages")
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
@@ -23,6 +31,7 @@ import java.util.List;
 public class ChatSession {
 
     @Id
+    @EqualsAndHashCode.Include
     @Column(name = "session_id", length = 100)
     private String sessionId;
 
@@ -88,10 +97,13 @@ public class ChatSession {
         this.messageCount = (this.messageCount == null ? 0 : this.messageCount) + 1;
     }
 
+    // Solo para sesiones nuevas, antes de guardarlas; en una sesión existente usar
+    // ChatSessionRepository.incrementMessageCount para no cargar la colección
     public void addMessage(ChatMessage message) {
         this.messages.add(message);
         message.setSession(this);
         incrementMessageCount();
+        message.setMessageOrder(this.messageCount);
     }
 
     @PrePersist
@@ -0,0 +1,61 @@
+package com.ialegal.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import org.hibernate.annotations.Immutable;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Resumen de una sesión de N8N (una fila por agente y sesión).
+ * Mapea a la tabla n8n_session_summaries, mantenida por triggers sobre las
+ * tablas de historial: desde la aplicación es de solo lectura.
+ */
+@Entity
+@Table(name = "n8n_session_summaries")
+@IdClass(N8nSessionSummary.Key.class)
+@Immutable
+@Data
+@NoArgsConstructor
+public class N8nSessionSummary {
+
+    @Id
+    @Column(name = "agent_type")
+    private String agentType;
+
+    @Id
+    @Column(name = "session_id")
+    private String sessionId;
+
+    @Column(name = "user_id", nullable = false)
+    private String userId;
+
+    @Column(name = "first_message_id", nullable = false)
+    private Long firstMessageId;
+
+    @Column(name = "last_message_id", nullable = false)
+    private Long lastMessageId;
+
+    @Column(name = "message_count", nullable = false)
+    private Long messageCount;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    @Column(name = "title", length = 200)
+    private String title;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private String agentType;
+        private String sessionId;
+    }
+}
@@ -0,0 +1,26 @@
+package com.ialegal.backend.event;
+
+import lombok.Data;
+import lombok.Builder;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+/**
+ * Cambio en una tabla de historial de N8N, recibido por LISTEN/NOTIFY.
+ * Lo publica N8nHistoryListener como evento de aplicación.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class N8nHistoryChangedEvent {
+
+    public enum Operation {
+        INSERT, DELETE
+    }
+
+    private Operation operation;
+    private String agentType;
+    private String sessionId;
+    private Long messageId; // solo para INSERT
+}
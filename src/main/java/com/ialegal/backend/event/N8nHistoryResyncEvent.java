@@ -0,0 +1,9 @@
+package com.ialegal.backend.event;
+
+/**
+ * Lo publica N8nHistoryListener cada vez que (re)establece el LISTEN: las notificaciones
+ * emitidas mientras no había conexión se perdieron, así que lo derivado de ellas
+ * (cachés, suscripciones) debe descartarse o volver a leerse.
+ */
+public class N8nHistoryResyncEvent {
+}
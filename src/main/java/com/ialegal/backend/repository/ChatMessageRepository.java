@@ -5,6 +5,7 @@ import com.ialegal.backend.entity.ChatSession;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -102,6 +103,13 @@ public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long>
     @Query("DELETE FROM ChatMessage m WHERE m.session.isActive = false AND m.createdAt < :cutoffDate")
     int deleteOldMessagesFromInactiveSessions(@Param("cutoffDate") LocalDateTime cutoffDate);
 
+    /**
+     * Elimina todos los mensajes de una sesión con un único DELETE
+     */
+    @Modifying
+    @Query("DELETE FROM ChatMessage m WHERE m.session.sessionId = :sessionId")
+    int deleteBySessionId(@Param("sessionId") String sessionId);
+
     /**
      * Encuentra mensajes sin respuesta del agente (posibles errores)
      */
@@ -8,6 +8,7 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -91,6 +92,18 @@ public interface ChatSessionRepository extends JpaRepository<ChatSession, String
     @Query("UPDATE ChatSession s SET s.isActive = :isActive, s.updatedAt = CURRENT_TIMESTAMP WHERE s.sessionId = :sessionId")
     int updateSessionActiveStatus(@Param("sessionId") String sessionId, @Param("isActive") boolean isActive);
 
+    /**
+     * Suma un mensaje al contador de la sesión del usuario y devuelve el nuevo valor, que es el
+     * orden del mensaje agregado. El UPDATE bloquea la fila hasta el commit: dos altas concurrentes
+     * obtienen órdenes distintos. Vacío si la sesión no existe o no pertenece al usuario.
+     */
+    @Transactional
+    @Query(value = "UPDATE chat_sessions SET message_count = COALESCE(message_count, 0) + 1, " +
+                   "updated_at = CURRENT_TIMESTAMP " +
+                   "WHERE session_id = :sessionId AND user_id = :userId " +
+                   "RETURNING message_count", nativeQuery = true)
+    Optional<Integer> incrementMessageCount(@Param("sessionId") String sessionId, @Param("userId") String userId);
+
     /**
      * Elimina sesiones inactivas más antiguas que X días
      */
@@ -98,6 +111,13 @@ public interface ChatSessionRepository extends JpaRepository<ChatSession, String
     @Query("DELETE FROM ChatSession s WHERE s.isActive = false AND s.updatedAt < :cutoffDate")
     int deleteInactiveSessionsOlderThan(@Param("cutoffDate") LocalDateTime cutoffDate);
 
+    /**
+     * Elimina una sesión del usuario sin cargarla (los mensajes se borran aparte)
+     */
+    @Modifying
+    @Query("DELETE FROM ChatSession s WHERE s.sessionId = :sessionId AND s.userId = :userId")
+    int deleteBySessionIdAndUserId(@Param("sessionId") String sessionId, @Param("userId") String userId);
+
     /**
      * Estadísticas: cuenta sesiones por tipo de agente para un usuario
      */
@@ -0,0 +1,193 @@
+package com.ialegal.backend.repository;
+
+import com.ialegal.backend.config.AgentRegistry;
+import com.ialegal.backend.util.SessionIds;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Verifica al arrancar que el planner resuelva con índices las consultas por usuario sobre el
+ * historial y sobre n8n_session_summaries (V1, V6 y los índices de N8nHistoryRepository).
+ * Cada sentencia se pasa por EXPLAIN tal cual, con el plan que elegiría el planner para esos
+ * valores y con el plan genérico que usa una sentencia preparada reutilizada; un Seq Scan solo
+ * cuenta en tablas con al menos min-rows filas estimadas, porque en tablas chicas es la opción
+ * correcta. Se activa con app.history.verify-plans.enabled=true; con fail-on-seq-scan=true el
+ * arranque falla en lugar de solo registrar el aviso. N8nHistoryPlanTest hace la misma
+ * verificación con datos de prueba.
+ */
+@Component
+@ConditionalOnProperty(name = "app.history.verify-plans.enabled", havingValue = "true")
+@RequiredArgsConstructor
+@Slf4j
+public class N8nHistoryPlanCheck {
+
+    static final String SUMMARY_TABLE = "n8n_session_summaries";
+
+    // :nombre, pero no el segundo ':' de un cast ::tipo
+    private static final Pattern NAMED_PARAMETER = Pattern.compile("(?<!:):([a-zA-Z][a-zA-Z0-9_]*)");
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final AgentRegistry agentRegistry;
+    private final N8nHistoryRepository historyRepository;
+
+    @Value("${app.history.verify-plans.fail-on-seq-scan:false}")
+    private boolean failOnSeqScan;
+
+    @Value("${app.history.verify-plans.min-rows:10000}")
+    private long minRows;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void verifyPlans() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        List<String> seqScans = new ArrayList<>();
+        for (AgentRegistry.Agent agent : agentRegistry.all()) {
+            if (estimatedRows(agent.table()) < 0) {
+                continue; // la tabla todavía no existe
+            }
+            // Valores de ejemplo: una sesión existente si la hay, para que el plan personalizado sea realista
+            MapSqlParameterSource parameters = sampleParameters(agent.id(), sampleSessionId(agent.table()));
+            Map<String, String> queries = userQueries(historyRepository.statements(agent.id()));
+            queries.putAll(summaryQueries());
+            for (Map.Entry<String, String> query : queries.entrySet()) {
+                for (boolean genericPlan : new boolean[]{false, true}) {
+                    String plan = explain(jdbcTemplate, transactionTemplate, query.getValue(), parameters, genericPlan);
+                    for (String table : List.of(agent.table(), SUMMARY_TABLE)) {
+                        if (plan.contains("Seq Scan on " + table + " ") && estimatedRows(table) >= minRows) {
+                            seqScans.add(agent.id() + "." + query.getKey() + (genericPlan ? " (generic)" : ""));
+                            log.warn("Query {} of agent {} scans {} sequentially:\n{}", query.getKey(), agent.id(), table, plan);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (seqScans.isEmpty()) {
+            log.info("History query plans verified for agents {}", agentRegistry.ids());
+        } else if (failOnSeqScan) {
+            throw new IllegalStateException("History queries without index: " + seqScans);
+        }
+    }
+
+    /**
+     * EXPLAIN de una sentencia con parámetros con nombre, preparada como lo hace el driver.
+     * genericPlan=true muestra el plan genérico, el que queda en caché cuando la sentencia
+     * preparada se reutiliza; false, el plan para estos valores.
+     */
+    static String explain(NamedParameterJdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                          String sql, MapSqlParameterSource parameters, boolean genericPlan) {
+        // :nombre -> $n (sin tocar los casts ::tipo); una lista vale por su primer elemento
+        List<Object> values = new ArrayList<>();
+        Map<String, Integer> positions = new LinkedHashMap<>();
+        Matcher matcher = NAMED_PARAMETER.matcher(sql);
+        StringBuilder prepared = new StringBuilder();
+        while (matcher.find()) {
+            String name = matcher.group(1);
+            Integer position = positions.get(name);
+            if (position == null) {
+                Object value = parameters.getValue(name);
+                values.add(value instanceof Collection<?> collection ? collection.iterator().next() : value);
+                position = values.size();
+                positions.put(name, position);
+            }
+            matcher.appendReplacement(prepared, Matcher.quoteReplacement("$" + position));
+        }
+        matcher.appendTail(prepared);
+
+        JdbcTemplate template = jdbcTemplate.getJdbcTemplate();
+        String plan = transactionTemplate.execute(status -> {
+            // Rollback: el EXPLAIN del DELETE no borra nada, pero tampoco debe quedar nada abierto
+            status.setRollbackOnly();
+            template.execute("SET LOCAL plan_cache_mode = " + (genericPlan ? "force_generic_plan" : "force_custom_plan"));
+            template.execute("PREPARE ialegal_plan_check AS " + prepared);
+            try {
+                String arguments = String.join(", ", Collections.nCopies(values.size(), "?"));
+                return String.join("\n", template.queryForList(
+                        "EXPLAIN EXECUTE ialegal_plan_check" + (values.isEmpty() ? "" : "(" + arguments + ")"),
+                        String.class, values.toArray()));
+            } finally {
+                template.execute("DEALLOCATE ialegal_plan_check");
+            }
+        });
+        return plan != null ? plan + "\n" : "";
+    }
+
+    // Sentencias que filtran por sesión o por usuario; messagesAfterId es la lectura completa de los indexadores
+    static Map<String, String> userQueries(N8nHistoryStatements statements) {
+        Map<String, String> queries = new LinkedHashMap<>();
+        queries.put("latestMessages", statements.latestMessages());
+        queries.put("messagesBefore", statements.messagesBefore());
+        queries.put("messagesAfter", statements.messagesAfter());
+        queries.put("messageById", statements.messageById());
+        queries.put("searchSessions", statements.searchSessions());
+        queries.put("deleteSession", statements.deleteSession());
+        return queries;
+    }
+
+    // Listados, resúmenes y sellos de versión sobre n8n_session_summaries
+    static Map<String, String> summaryQueries() {
+        Map<String, String> queries = new LinkedHashMap<>();
+        queries.put("summariesPage", N8nHistoryRepository.SUMMARIES_PAGE);
+        queries.put("summaryBySession", N8nHistoryRepository.SUMMARY_BY_SESSION);
+        queries.put("summariesBySessionIds", N8nHistoryRepository.SUMMARIES_BY_SESSION_IDS);
+        queries.put("recentSummaries", N8nHistoryRepository.RECENT_SUMMARIES);
+        queries.put("sessionVersion", N8nHistoryRepository.SESSION_VERSION);
+        queries.put("sessionListVersion", N8nHistoryRepository.SESSION_LIST_VERSION);
+        queries.put("recentVersion", N8nHistoryRepository.RECENT_VERSION);
+        return queries;
+    }
+
+    // Valores para todos los parámetros de userQueries y summaryQueries; los ids caben en un integer
+    static MapSqlParameterSource sampleParameters(String agentType, String sessionId) {
+        return new MapSqlParameterSource()
+                .addValue("sessionId", sessionId)
+                .addValue("sessionIds", List.of(sessionId))
+                .addValue("userId", SessionIds.userIdOf(sessionId, agentType))
+                .addValue("agentType", agentType)
+                .addValue("query", "contrato")
+                .addValue("id", 1L)
+                .addValue("beforeId", (long) Integer.MAX_VALUE)
+                .addValue("afterId", 0L)
+                .addValue("afterRank", Double.MAX_VALUE)
+                .addValue("afterSessionId", "")
+                .addValue("beforeLastMessageId", (long) Integer.MAX_VALUE)
+                .addValue("beforeUpdatedAt", Timestamp.valueOf("9999-12-31 00:00:00"))
+                .addValue("beforeAgentType", "")
+                .addValue("beforeSessionId", "")
+                .addValue("limit", 50);
+    }
+
+    private String sampleSessionId(String table) {
+        List<String> sessionIds = jdbcTemplate.getJdbcTemplate().queryForList(
+                "SELECT session_id FROM " + table + " ORDER BY id DESC LIMIT 1", String.class);
+        return sessionIds.isEmpty() ? "plan-check_ia-general_0_00000000" : sessionIds.get(0);
+    }
+
+    private long estimatedRows(String table) {
+        // -1 si la tabla no existe
+        Long rows = jdbcTemplate.getJdbcTemplate().queryForObject(
+                "SELECT COALESCE((SELECT GREATEST(reltuples, 0)::bigint FROM pg_class WHERE oid = to_regclass(?)), -1)",
+                Long.class, table);
+        return rows != null ? rows : -1L;
+    }
+}
@@ -0,0 +1,439 @@
+package com.ialegal.backend.repository;
+
+import com.ialegal.backend.config.AgentRegistry;
+import com.ialegal.backend.dto.VersionStampDto;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Motor de consultas común a todas las tablas de historial de N8N y a n8n_session_summaries.
+ * Al arrancar arma un {@link N8nHistoryStatements} por cada agente de {@link AgentRegistry}
+ * y asegura que su tabla tenga los triggers e índices del backend; después cada llamada
+ * solo elige el juego de sentencias del agente.
+ * Las filas se mapean directamente a records (N8nMessageRow, N8nSessionSummaryRow) y a
+ * VersionStampDto: sin entidades gestionadas, sin contexto de persistencia ni snapshots.
+ */
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class N8nHistoryRepository {
+
+    private static final String SUMMARY_COLUMNS = "agent_type, session_id, user_id, first_message_id, last_message_id, " +
+            "message_count, created_at, updated_at, title, NULL::real AS rank";
+
+    // Consultas sobre n8n_session_summaries (también las verifica N8nHistoryPlanCheck)
+    static final String SUMMARIES_PAGE =
+            "SELECT " + SUMMARY_COLUMNS + " " +
+            "FROM n8n_session_summaries " +
+            "WHERE user_id = :userId " +
+            "AND agent_type = :agentType " +
+            "AND last_message_id < :beforeLastMessageId " +
+            "ORDER BY last_message_id DESC " +
+            "LIMIT :limit";
+
+    static final String SUMMARY_BY_SESSION =
+            "SELECT " + SUMMARY_COLUMNS + " " +
+            "FROM n8n_session_summaries " +
+            "WHERE agent_type = :agentType " +
+            "AND session_id = :sessionId " +
+            "AND user_id = :userId";
+
+    static final String SUMMARIES_BY_SESSION_IDS =
+            "SELECT " + SUMMARY_COLUMNS + " " +
+            "FROM n8n_session_summaries " +
+            "WHERE agent_type = :agentType " +
+            "AND user_id = :userId " +
+            "AND session_id IN (:sessionIds)";
+
+    static final String RECENT_SUMMARIES =
+            "SELECT " + SUMMARY_COLUMNS + " " +
+            "FROM n8n_session_summaries " +
+            "WHERE user_id = :userId " +
+            "AND (updated_at, agent_type, session_id) < (:beforeUpdatedAt, :beforeAgentType, :beforeSessionId) " +
+            "ORDER BY updated_at DESC, agent_type DESC, session_id DESC " +
+            "LIMIT :limit";
+
+    static final String SESSION_VERSION =
+            "SELECT last_message_id, message_count " +
+            "FROM n8n_session_summaries " +
+            "WHERE agent_type = :agentType " +
+            "AND session_id = :sessionId " +
+            "AND user_id = :userId";
+
+    static final String SESSION_LIST_VERSION =
+            "SELECT COALESCE(MAX(last_message_id), 0) AS last_message_id, " +
+            "COUNT(*) AS session_count, COALESCE(SUM(message_count), 0) AS message_count " +
+            "FROM n8n_session_summaries " +
+            "WHERE user_id = :userId " +
+            "AND agent_type = :agentType";
+
+    static final String RECENT_VERSION =
+            "SELECT COALESCE(SUM(last_message_id), 0) AS last_message_id, " +
+            "COUNT(*) AS session_count, COALESCE(SUM(message_count), 0) AS message_count " +
+            "FROM n8n_session_summaries " +
+            "WHERE user_id = :userId";
+
+    private static final RowMapper<N8nSessionSummaryRow> SUMMARY_MAPPER = (rs, rowNum) -> new N8nSessionSummaryRow(
+            rs.getString("agent_type"),
+            rs.getString("session_id"),
+            rs.getString("user_id"),
+            rs.getLong("first_message_id"),
+            rs.getLong("last_message_id"),
+            rs.getLong("message_count"),
+            toLocalDateTime(rs.getTimestamp("created_at")),
+            toLocalDateTime(rs.getTimestamp("updated_at")),
+            rs.getString("title"),
+            getFloat(rs, "rank"));
+
+    private static final RowMapper<N8nMessageRow> MESSAGE_MAPPER = (rs, rowNum) -> new N8nMessageRow(
+            rs.getLong("id"),
+            rs.getString("session_id"),
+            rs.getString("message"),
+            toLocalDateTime(rs.getTimestamp("created_at")));
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final AgentRegistry agentRegistry;
+
+    @Value("${app.history.stream.fetch-size:500}")
+    private int fetchSize;
+
+    private Map<String, N8nHistoryStatements> statements;
+
+    // Misma conexión y datasource, con fetch size para leer con cursor
+    private NamedParameterJdbcTemplate cursorTemplate;
+
+    @PostConstruct
+    void init() {
+        JdbcTemplate cursorJdbcTemplate = new JdbcTemplate(jdbcTemplate.getJdbcTemplate().getDataSource());
+        cursorJdbcTemplate.setFetchSize(fetchSize);
+        cursorTemplate = new NamedParameterJdbcTemplate(cursorJdbcTemplate);
+
+        statements = new LinkedHashMap<>();
+        for (AgentRegistry.Agent agent : agentRegistry.all()) {
+            statements.put(agent.id(), N8nHistoryStatements.forTable(agent.id(), agent.table()));
+            createIndexes(agent);
+            attachTriggers(agent);
+        }
+    }
+
+    /**
+     * Juego de sentencias de un agente; IllegalArgumentException si el agente no está configurado
+     */
+    public N8nHistoryStatements statements(String agentType) {
+        N8nHistoryStatements agentStatements = statements.get(agentType);
+        if (agentStatements == null) {
+            agentRegistry.get(agentType); // lanza la excepción de agente desconocido
+        }
+        return agentStatements;
+    }
+
+    // Sesiones del usuario por última actividad; keyset sobre last_message_id
+    public List<N8nSessionSummaryRow> findSessionSummariesPage(String userId, String agentType,
+                                                               long beforeLastMessageId, int limit) {
+        agentRegistry.get(agentType);
+        return jdbcTemplate.query(SUMMARIES_PAGE,
+                new MapSqlParameterSource()
+                        .addValue("userId", userId)
+                        .addValue("agentType", agentType)
+                        .addValue("beforeLastMessageId", beforeLastMessageId)
+                        .addValue("limit", limit),
+                SUMMARY_MAPPER);
+    }
+
+    // Resumen de una sesión del usuario; vacío si no existe o no le pertenece
+    public Optional<N8nSessionSummaryRow> findSessionSummary(String agentType, String sessionId, String userId) {
+        agentRegistry.get(agentType);
+        return jdbcTemplate.query(SUMMARY_BY_SESSION,
+                new MapSqlParameterSource()
+                        .addValue("agentType", agentType)
+                        .addValue("sessionId", sessionId)
+                        .addValue("userId", userId),
+                SUMMARY_MAPPER).stream().findFirst();
+    }
+
+    // Resúmenes de varias sesiones del usuario, sin orden
+    public List<N8nSessionSummaryRow> findSessionSummariesBySessionIds(String agentType, String userId,
+                                                                       Collection<String> sessionIds) {
+        agentRegistry.get(agentType);
+        return jdbcTemplate.query(SUMMARIES_BY_SESSION_IDS,
+                new MapSqlParameterSource()
+                        .addValue("agentType", agentType)
+                        .addValue("userId", userId)
+                        .addValue("sessionIds", sessionIds),
+                SUMMARY_MAPPER);
+    }
+
+    // Sesiones del usuario en todos los agentes por última actividad; keyset sobre (updated_at, agent_type, session_id)
+    public List<N8nSessionSummaryRow> findRecentSessionSummaries(String userId, LocalDateTime beforeUpdatedAt,
+                                                                 String beforeAgentType, String beforeSessionId,
+                                                                 int limit) {
+        return jdbcTemplate.query(RECENT_SUMMARIES,
+                new MapSqlParameterSource()
+                        .addValue("userId", userId)
+                        .addValue("beforeUpdatedAt", beforeUpdatedAt)
+                        .addValue("beforeAgentType", beforeAgentType)
+                        .addValue("beforeSessionId", beforeSessionId)
+                        .addValue("limit", limit),
+                SUMMARY_MAPPER);
+    }
+
+    // Búsqueda de texto completo agrupada por sesión; keyset sobre (rank, session_id)
+    public List<N8nSessionSummaryRow> searchSessionsByContent(String userId, String agentType, String query,
+                                                              double afterRank, String afterSessionId, int limit) {
+        return jdbcTemplate.query(statements(agentType).searchSessions(),
+                new MapSqlParameterSource()
+                        .addValue("userId", userId)
+                        .addValue("agentType", agentType)
+                        .addValue("query", query)
+                        .addValue("afterRank", afterRank)
+                        .addValue("afterSessionId", afterSessionId)
+                        .addValue("limit", limit),
+                SUMMARY_MAPPER);
+    }
+
+    // Paginación de mensajes por id; el filtro por usuario va en la misma sentencia:
+    // una página vacía equivale a sesión inexistente o ajena
+    public List<N8nMessageRow> findLatestBySessionIdAndUserId(String agentType, String sessionId, String userId,
+                                                              int limit) {
+        return jdbcTemplate.query(statements(agentType).latestMessages(),
+                new MapSqlParameterSource()
+                        .addValue("sessionId", sessionId)
+                        .addValue("userId", userId)
+                        .addValue("limit", limit),
+                MESSAGE_MAPPER);
+    }
+
+    public List<N8nMessageRow> findBySessionIdAndUserIdBeforeId(String agentType, String sessionId, String userId,
+                                                                long beforeId, int limit) {
+        return jdbcTemplate.query(statements(agentType).messagesBefore(),
+                new MapSqlParameterSource()
+                        .addValue("sessionId", sessionId)
+                        .addValue("userId", userId)
+                        .addValue("beforeId", beforeId)
+                        .addValue("limit", limit),
+                MESSAGE_MAPPER);
+    }
+
+    public List<N8nMessageRow> findBySessionIdAndUserIdAfterId(String agentType, String sessionId, String userId,
+                                                               long afterId, int limit) {
+        return jdbcTemplate.query(statements(agentType).messagesAfter(),
+                new MapSqlParameterSource()
+                        .addValue("sessionId", sessionId)
+                        .addValue("userId", userId)
+                        .addValue("afterId", afterId)
+                        .addValue("limit", limit),
+                MESSAGE_MAPPER);
+    }
+
+    /**
+     * Recorre con un cursor de solo avance los mensajes de la sesión del usuario con id mayor que afterId,
+     * leyendo de a app.history.stream.fetch-size filas. En Postgres el cursor solo se usa dentro de una
+     * transacción; fuera de ella el driver trae el resultado completo.
+     */
+    public long streamBySessionIdAndUserIdAfterId(String agentType, String sessionId, String userId, long afterId,
+                                                  Consumer<N8nMessageRow> consumer) {
+        return cursorTemplate.query(statements(agentType).messagesAfter(),
+                new MapSqlParameterSource()
+                        .addValue("sessionId", sessionId)
+                        .addValue("userId", userId)
+                        .addValue("afterId", afterId)
+                        .addValue("limit", Integer.MAX_VALUE),
+                (ResultSet rs) -> {
+                    long count = 0;
+                    while (rs.next()) {
+                        consumer.accept(MESSAGE_MAPPER.mapRow(rs, (int) count));
+                        count++;
+                    }
+                    return count;
+                });
+    }
+
+    public Optional<N8nMessageRow> findMessageById(String agentType, long id) {
+        return jdbcTemplate.query(statements(agentType).messageById(),
+                new MapSqlParameterSource("id", id),
+                MESSAGE_MAPPER).stream().findFirst();
+    }
+
+    // Mensajes con id mayor que el indicado, en orden de inserción (lectura incremental por lotes)
+    public List<N8nMessageRow> findByIdGreaterThan(String agentType, long afterId, int limit) {
+        return jdbcTemplate.query(statements(agentType).messagesAfterId(),
+                new MapSqlParameterSource()
+                        .addValue("afterId", afterId)
+                        .addValue("limit", limit),
+                MESSAGE_MAPPER);
+    }
+
+    // Mensajes con id dentro de alguno de los rangos [fromIds[i], toIds[i]] (huecos de N8nHistoryTail)
+    public List<N8nMessageRow> findByIdRanges(String agentType, long[] fromIds, long[] toIds, int limit) {
+        return jdbcTemplate.query(statements(agentType).messagesInIdRanges(),
+                new MapSqlParameterSource()
+                        .addValue("fromIds", arrayLiteral(fromIds))
+                        .addValue("toIds", arrayLiteral(toIds))
+                        .addValue("limit", limit),
+                MESSAGE_MAPPER);
+    }
+
+    // Transacción más antigua aún en curso y primera aún no asignada del snapshot actual (N8nHistoryTail)
+    public long currentSnapshotXmin() {
+        return jdbcTemplate.getJdbcTemplate().queryForObject(
+                "SELECT pg_snapshot_xmin(pg_current_snapshot())::text::bigint", Long.class);
+    }
+
+    public long currentSnapshotXmax() {
+        return jdbcTemplate.getJdbcTemplate().queryForObject(
+                "SELECT pg_snapshot_xmax(pg_current_snapshot())::text::bigint", Long.class);
+    }
+
+    // Último id de la tabla del agente; 0 si está vacía
+    public long findMaxId(String agentType) {
+        Long maxId = jdbcTemplate.queryForObject(statements(agentType).maxId(), new MapSqlParameterSource(), Long.class);
+        return maxId != null ? maxId : 0L;
+    }
+
+    // Elimina todos los mensajes de una sesión del usuario con un único DELETE; devuelve las filas borradas
+    public int deleteBySessionIdAndUserId(String agentType, String sessionId, String userId) {
+        return jdbcTemplate.update(statements(agentType).deleteSession(),
+                new MapSqlParameterSource()
+                        .addValue("sessionId", sessionId)
+                        .addValue("userId", userId));
+    }
+
+    // Sello de versión de una sesión del usuario; vacío si no existe o no le pertenece
+    public Optional<VersionStampDto> findSessionVersion(String agentType, String sessionId, String userId) {
+        agentRegistry.get(agentType);
+        return jdbcTemplate.query(SESSION_VERSION,
+                new MapSqlParameterSource()
+                        .addValue("agentType", agentType)
+                        .addValue("sessionId", sessionId)
+                        .addValue("userId", userId),
+                (rs, rowNum) -> VersionStampDto.builder()
+                        .lastMessageId(rs.getLong("last_message_id"))
+                        .sessionCount(1)
+                        .messageCount(rs.getLong("message_count"))
+                        .build()).stream().findFirst();
+    }
+
+    // Sello de versión del listado del usuario en un agente
+    public VersionStampDto findSessionListVersion(String userId, String agentType) {
+        agentRegistry.get(agentType);
+        return jdbcTemplate.queryForObject(SESSION_LIST_VERSION,
+                new MapSqlParameterSource()
+                        .addValue("userId", userId)
+                        .addValue("agentType", agentType),
+                (rs, rowNum) -> toVersionStamp(rs));
+    }
+
+    // Sello de versión del feed de recientes: usa la suma de últimos ids, que cambia con cada alta o baja
+    public VersionStampDto findRecentVersion(String userId) {
+        return jdbcTemplate.queryForObject(RECENT_VERSION,
+                new MapSqlParameterSource("userId", userId),
+                (rs, rowNum) -> toVersionStamp(rs));
+    }
+
+    /**
+     * Índices del backend sobre la tabla de historial del agente (ver V7). La tabla es de N8N y
+     * puede ser grande: CREATE INDEX CONCURRENTLY solo toma SHARE UPDATE EXCLUSIVE, así que N8N
+     * sigue insertando mientras se construye; no puede ir en una transacción, por eso no está en
+     * una migración. Cada sentencia va en autocommit y espera a que terminen las transacciones
+     * que ya estaban abiertas sobre la tabla. Un índice que quedó inválido por una construcción
+     * interrumpida se borra y se vuelve a crear.
+     */
+    private void createIndexes(AgentRegistry.Agent agent) {
+        String table = agent.table();
+        JdbcTemplate autocommit = jdbcTemplate.getJdbcTemplate();
+        Boolean exists = autocommit.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, table);
+        if (!Boolean.TRUE.equals(exists)) {
+            return;
+        }
+
+        Map<String, String> indexes = new LinkedHashMap<>();
+        // Mensajes de una sesión por rangos de id; text_pattern_ops también sirve para la igualdad
+        indexes.put(table + "_session_pattern_idx", "(session_id text_pattern_ops, id)");
+        // Pertenencia y búsqueda por usuario: misma expresión que N8nHistoryStatements
+        indexes.put(table + "_user_idx",
+                "((" + N8nHistoryStatements.sessionUserId("session_id", agent.id()) + "), id)");
+        // Primer mensaje del usuario de cada sesión (título en los resúmenes)
+        indexes.put(table + "_human_idx", "(session_id, id) WHERE message->>'type' = 'human'");
+        indexes.put(table + "_content_fts_idx",
+                "USING GIN (to_tsvector('ialegal_es'::regconfig, COALESCE(message->>'content', '')))");
+
+        indexes.forEach((name, definition) -> {
+            Boolean valid = autocommit.query("SELECT indisvalid FROM pg_index WHERE indexrelid = to_regclass(?)",
+                    rs -> rs.next() ? rs.getBoolean(1) : null, name);
+            if (Boolean.TRUE.equals(valid)) {
+                return;
+            }
+            if (Boolean.FALSE.equals(valid)) {
+                log.warn("Index {} is invalid, rebuilding it", name);
+                autocommit.execute("DROP INDEX CONCURRENTLY IF EXISTS " + name);
+            }
+            log.info("Creating index {} on {}", name, table);
+            autocommit.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + name + " ON " + table + " " + definition);
+        });
+    }
+
+    /**
+     * Agentes agregados solo por configuración: si su tabla existe y todavía no tiene los
+     * triggers del backend, se instalan (resúmenes y notificaciones, ver V1-V7).
+     */
+    private void attachTriggers(AgentRegistry.Agent agent) {
+        Boolean attached = jdbcTemplate.queryForObject("SELECT to_regclass(:table) IS NULL OR EXISTS (" +
+                        "SELECT 1 FROM pg_trigger WHERE tgrelid = to_regclass(:table) AND tgname = 'ialegal_summary_ins')",
+                new MapSqlParameterSource("table", agent.table()), Boolean.class);
+        if (!Boolean.TRUE.equals(attached)) {
+            log.info("Attaching history triggers to {} for agent {}", agent.table(), agent.id());
+            jdbcTemplate.queryForObject("SELECT ialegal_attach_history_triggers(:table, :agentType)::text",
+                    new MapSqlParameterSource()
+                            .addValue("table", agent.table())
+                            .addValue("agentType", agent.id()),
+                    String.class);
+        }
+    }
+
+    private static VersionStampDto toVersionStamp(ResultSet rs) throws SQLException {
+        return VersionStampDto.builder()
+                .lastMessageId(rs.getLong("last_message_id"))
+                .sessionCount(rs.getLong("session_count"))
+                .messageCount(rs.getLong("message_count"))
+                .build();
+    }
+
+    private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+
+    private static Float getFloat(ResultSet rs, String column) throws SQLException {
+        float value = rs.getFloat(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    // Literal de array de PostgreSQL ({1,2,3}); la sentencia lo convierte con CAST(... AS bigint[])
+    private static String arrayLiteral(long[] values) {
+        StringBuilder literal = new StringBuilder("{");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                literal.append(',');
+            }
+            literal.append(values[i]);
+        }
+        return literal.append('}').toString();
+    }
+}
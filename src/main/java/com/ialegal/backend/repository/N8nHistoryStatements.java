@@ -0,0 +1,83 @@
+package com.ialegal.backend.repository;
+
+/**
+ * Sentencias sobre la tabla de historial de un agente, armadas una sola vez al arrancar.
+ * Usan parámetros con nombre (:param), que entienden tanto NamedParameterJdbcTemplate como
+ * el DatabaseClient de R2DBC. El texto de cada sentencia es fijo por agente, así que el
+ * driver reutiliza sus sentencias preparadas en el servidor entre llamadas.
+ */
+public record N8nHistoryStatements(String agentType,
+                                   String table,
+                                   String latestMessages,
+                                   String messagesBefore,
+                                   String messagesAfter,
+                                   String messageById,
+                                   String messagesAfterId,
+                                   String messagesInIdRanges,
+                                   String searchSessions,
+                                   String deleteSession,
+                                   String maxId) {
+
+    private static final String MESSAGE_COLUMNS = "id, session_id, message::text AS message, created_at";
+
+    /**
+     * userId del sessionId (formato: userId_agentType_timestamp_uuid). Es la misma expresión del
+     * índice por usuario que crea N8nHistoryRepository: el planner solo lo usa si coincide.
+     */
+    public static String sessionUserId(String column, String agentType) {
+        return "ialegal_session_user_id(" + column + ", '" + agentType.replace("'", "''") + "')";
+    }
+
+    public static N8nHistoryStatements forTable(String agentType, String table) {
+        // Filtro de pertenencia por igualdad sobre el índice de expresión
+        String ownedSession = "WHERE session_id = :sessionId " +
+                "AND " + sessionUserId("session_id", agentType) + " = :userId ";
+
+        return new N8nHistoryStatements(agentType, table,
+                // Paginación por id sobre el índice (session_id text_pattern_ops, id); siempre en orden ascendente
+                "SELECT * FROM (" +
+                        "SELECT " + MESSAGE_COLUMNS + " FROM " + table + " " +
+                        ownedSession +
+                        "ORDER BY id DESC LIMIT :limit) m " +
+                        "ORDER BY id ASC",
+                "SELECT * FROM (" +
+                        "SELECT " + MESSAGE_COLUMNS + " FROM " + table + " " +
+                        ownedSession +
+                        "AND id < :beforeId " +
+                        "ORDER BY id DESC LIMIT :limit) m " +
+                        "ORDER BY id ASC",
+                "SELECT " + MESSAGE_COLUMNS + " FROM " + table + " " +
+                        ownedSession +
+                        "AND id > :afterId " +
+                        "ORDER BY id ASC LIMIT :limit",
+                "SELECT " + MESSAGE_COLUMNS + " FROM " + table + " " +
+                        "WHERE id = :id",
+                // Lectura incremental de toda la tabla por id creciente (indexadores)
+                "SELECT " + MESSAGE_COLUMNS + " FROM " + table + " " +
+                        "WHERE id > :afterId " +
+                        "ORDER BY id ASC LIMIT :limit",
+                // Relectura de huecos de ids por rangos [fromIds[i], toIds[i]] sobre la clave primaria
+                "SELECT " + MESSAGE_COLUMNS + " FROM " + table + " " +
+                        "JOIN unnest(CAST(:fromIds AS bigint[]), CAST(:toIds AS bigint[])) AS r(from_id, to_id) " +
+                        "ON id BETWEEN r.from_id AND r.to_id " +
+                        "ORDER BY id ASC LIMIT :limit",
+                // Texto completo agrupado por sesión; keyset sobre (rank, session_id)
+                "WITH hits AS (" +
+                        "SELECT h.session_id, MAX(ts_rank_cd(to_tsvector('ialegal_es', COALESCE(h.message->>'content', '')), q.query)) AS rank " +
+                        "FROM " + table + " h, websearch_to_tsquery('ialegal_es', :query) AS q(query) " +
+                        "WHERE to_tsvector('ialegal_es', COALESCE(h.message->>'content', '')) @@ q.query " +
+                        "AND " + sessionUserId("h.session_id", agentType) + " = :userId " +
+                        "GROUP BY h.session_id) " +
+                        "SELECT s.agent_type, s.session_id, s.user_id, s.first_message_id, s.last_message_id, s.message_count, " +
+                        "s.created_at, s.updated_at, s.title, hits.rank " +
+                        "FROM hits JOIN n8n_session_summaries s " +
+                        "ON s.agent_type = :agentType AND s.session_id = hits.session_id " +
+                        "WHERE hits.rank < :afterRank OR (hits.rank = :afterRank AND hits.session_id > :afterSessionId) " +
+                        "ORDER BY hits.rank DESC, hits.session_id ASC " +
+                        "LIMIT :limit",
+                "DELETE FROM " + table + " " +
+                        ownedSession,
+                // Último id de la tabla (sobre la clave primaria): retraso de los lectores incrementales
+                "SELECT COALESCE(MAX(id), 0) FROM " + table);
+    }
+}
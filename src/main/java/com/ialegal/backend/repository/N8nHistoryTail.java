@@ -0,0 +1,231 @@
+package com.ialegal.backend.repository;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lectura incremental por id de las tablas de historial para los procesos que derivan datos
+ * de ellas (proyección a chat_messages, índice de Lucene, embeddings).
+ * El id se asigna al insertar pero la fila solo es visible al confirmar la transacción: una
+ * transacción que confirma tarde deja un id menor detrás de otros ya leídos, y un watermark que
+ * salta al mayor id leído la pierde para siempre. Aquí cada lectura sigue desde el mayor id leído
+ * con un límite fijo, y los ids que faltaban entre los leídos se guardan como huecos (rangos) que
+ * se releen por clave primaria en cada lote. Un hueco se descarta cuando todas las transacciones en
+ * curso al leerlo terminaron (xmin del snapshot actual mayor o igual que el xmax de entonces), pasó
+ * safety-lag y una última relectura no lo encontró; el watermark es el id anterior al primer hueco.
+ * Con una transacción abierta mucho tiempo solo crecen los huecos, no lo que se relee por lote.
+ * El estado es en memoria y por agente: tras un reinicio se relee desde el watermark guardado,
+ * así que cada proceso debe tolerar filas ya procesadas. Un lector usa su instancia desde un
+ * único hilo.
+ */
+public class N8nHistoryTail {
+
+    // Lecturas pendientes de asentar por agente; al llegar al máximo se funden las más recientes
+    private static final int MAX_CHECKPOINTS = 64;
+
+    private final N8nHistoryRepository historyRepository;
+    private final long safetyLagNanos;
+    private final Map<String, AgentTail> tails = new ConcurrentHashMap<>();
+
+    public N8nHistoryTail(N8nHistoryRepository historyRepository, Duration safetyLag) {
+        this.historyRepository = historyRepository;
+        this.safetyLagNanos = safetyLag.toNanos();
+    }
+
+    /**
+     * Siguiente lote de filas no procesadas del agente, como mucho limit.
+     * savedWatermark es el watermark guardado por el proceso; solo se usa la primera vez.
+     */
+    public Batch next(String agentType, long savedWatermark, int limit) {
+        AgentTail tail = tails.computeIfAbsent(agentType, ignored -> new AgentTail(savedWatermark));
+
+        // Lecturas cuyos huecos ya no pueden llenarse: se comprueba antes de releerlos para que
+        // la relectura vea cualquier fila confirmada hasta ahora
+        long xmin = historyRepository.currentSnapshotXmin();
+        long now = System.nanoTime();
+        long safeUpTo = tail.safeUpTo;
+        int settled = 0;
+        for (Checkpoint checkpoint : tail.checkpoints) {
+            if (checkpoint.xmax() > xmin || now - checkpoint.readAtNanos() < safetyLagNanos) {
+                break;
+            }
+            safeUpTo = Math.max(safeUpTo, checkpoint.maxId());
+            settled++;
+        }
+
+        TreeMap<Long, Long> gaps = new TreeMap<>(tail.gaps);
+        List<N8nMessageRow> rows = new ArrayList<>();
+        if (!gaps.isEmpty()) {
+            long[] fromIds = new long[gaps.size()];
+            long[] toIds = new long[gaps.size()];
+            int i = 0;
+            for (Map.Entry<Long, Long> gap : gaps.entrySet()) {
+                fromIds[i] = gap.getKey();
+                toIds[i++] = gap.getValue();
+            }
+            List<N8nMessageRow> late = historyRepository.findByIdRanges(agentType, fromIds, toIds, limit);
+            for (N8nMessageRow row : late) {
+                fill(gaps, row.id());
+            }
+            rows.addAll(late);
+            // Sin filas pendientes más allá del límite, lo que queda por debajo de safeUpTo no existirá
+            if (late.size() < limit) {
+                discardUpTo(gaps, safeUpTo);
+            }
+        }
+
+        long readUpTo = tail.readUpTo;
+        Checkpoint checkpoint = null;
+        if (rows.size() < limit) {
+            List<N8nMessageRow> read = historyRepository.findByIdGreaterThan(agentType, tail.readUpTo,
+                    limit - rows.size());
+            long xmax = historyRepository.currentSnapshotXmax();
+            long readAtNanos = System.nanoTime();
+            for (N8nMessageRow row : read) {
+                if (row.id() > readUpTo + 1) {
+                    gaps.put(readUpTo + 1, row.id() - 1);
+                }
+                readUpTo = row.id();
+            }
+            rows.addAll(read);
+            checkpoint = new Checkpoint(readUpTo, xmax, readAtNanos);
+        }
+        rows.sort(Comparator.comparingLong(N8nMessageRow::id));
+
+        long watermark = gaps.isEmpty() ? readUpTo : Math.min(readUpTo, gaps.firstKey() - 1);
+        return new Batch(agentType, rows, Math.max(tail.watermark, watermark), readUpTo, gaps,
+                safeUpTo, settled, checkpoint);
+    }
+
+    /**
+     * Marca el lote como procesado; se llama después de confirmar sus datos y su watermark.
+     * Si el proceso falla y no se llama, el lote se vuelve a leer.
+     */
+    public void commit(Batch batch) {
+        AgentTail tail = tails.get(batch.agentType());
+        tail.watermark = batch.watermark();
+        tail.readUpTo = batch.readUpTo;
+        tail.gaps = batch.gaps;
+        tail.safeUpTo = batch.safeUpTo;
+        for (int i = 0; i < batch.settled; i++) {
+            tail.checkpoints.removeFirst();
+        }
+        Checkpoint checkpoint = batch.checkpoint;
+        Checkpoint last = tail.checkpoints.peekLast();
+        if (checkpoint != null && checkpoint.maxId() > tail.watermark
+                && (last == null || checkpoint.maxId() > last.maxId())) {
+            // La lectura nueva tiene mayor xmax y es posterior: fundir la última solo retrasa su descarte
+            if (tail.checkpoints.size() >= MAX_CHECKPOINTS) {
+                tail.checkpoints.removeLast();
+            }
+            tail.checkpoints.addLast(checkpoint);
+        }
+    }
+
+    /**
+     * Olvida el estado del agente: la próxima lectura parte del watermark guardado
+     */
+    public void reset(String agentType) {
+        tails.remove(agentType);
+    }
+
+    // Quita un id encontrado de su hueco, partiéndolo si queda en medio
+    private static void fill(TreeMap<Long, Long> gaps, long id) {
+        Map.Entry<Long, Long> gap = gaps.floorEntry(id);
+        if (gap == null || gap.getValue() < id) {
+            return;
+        }
+        gaps.remove(gap.getKey());
+        if (gap.getKey() < id) {
+            gaps.put(gap.getKey(), id - 1);
+        }
+        if (gap.getValue() > id) {
+            gaps.put(id + 1, gap.getValue());
+        }
+    }
+
+    private static void discardUpTo(TreeMap<Long, Long> gaps, long safeUpTo) {
+        Iterator<Map.Entry<Long, Long>> it = gaps.entrySet().iterator();
+        Long trimmedTo = null;
+        while (it.hasNext()) {
+            Map.Entry<Long, Long> gap = it.next();
+            if (gap.getKey() > safeUpTo) {
+                break;
+            }
+            it.remove();
+            if (gap.getValue() > safeUpTo) {
+                trimmedTo = gap.getValue();
+                break;
+            }
+        }
+        if (trimmedTo != null) {
+            gaps.put(safeUpTo + 1, trimmedTo);
+        }
+    }
+
+    /**
+     * Filas nuevas de un lote y watermark a guardar junto con lo derivado de ellas
+     */
+    public static final class Batch {
+
+        private final String agentType;
+        private final List<N8nMessageRow> rows;
+        private final long watermark;
+        private final long readUpTo;
+        private final TreeMap<Long, Long> gaps;
+        private final long safeUpTo;
+        private final int settled;
+        private final Checkpoint checkpoint;
+
+        private Batch(String agentType, List<N8nMessageRow> rows, long watermark, long readUpTo,
+                      TreeMap<Long, Long> gaps, long safeUpTo, int settled, Checkpoint checkpoint) {
+            this.agentType = agentType;
+            this.rows = rows;
+            this.watermark = watermark;
+            this.readUpTo = readUpTo;
+            this.gaps = gaps;
+            this.safeUpTo = safeUpTo;
+            this.settled = settled;
+            this.checkpoint = checkpoint;
+        }
+
+        public String agentType() {
+            return agentType;
+        }
+
+        public List<N8nMessageRow> rows() {
+            return rows;
+        }
+
+        public long watermark() {
+            return watermark;
+        }
+    }
+
+    private record Checkpoint(long maxId, long xmax, long readAtNanos) {
+    }
+
+    private static final class AgentTail {
+
+        private long watermark;
+        private long readUpTo;
+        private long safeUpTo;
+        // Huecos por encima del watermark: desde -> hasta, ambos incluidos
+        private TreeMap<Long, Long> gaps = new TreeMap<>();
+        private final Deque<Checkpoint> checkpoints = new ArrayDeque<>();
+
+        private AgentTail(long watermark) {
+            this.watermark = watermark;
+            this.readUpTo = watermark;
+            this.safeUpTo = watermark;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.ialegal.backend.repository;
+
+import com.ialegal.backend.util.N8nMessageParser;
+
+import java.time.LocalDateTime;
+
+/**
+ * Fila de una tabla de historial de N8N leída sin pasar por JPA: id, session_id, el JSONB crudo
+ * y created_at (puede ser null: N8N no siempre lo completa).
+ */
+public record N8nMessageRow(Long id, String sessionId, String message, LocalDateTime createdAt) {
+
+    // Texto del mensaje; null si el JSON no tiene contenido
+    public String content() {
+        N8nMessageParser.MessageContent parsed = N8nMessageParser.parse(message);
+        return parsed != null ? parsed.getContent() : null;
+    }
+}
@@ -0,0 +1,20 @@
+package com.ialegal.backend.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Fila de n8n_session_summaries leída sin pasar por JPA.
+ * userId es el dueño exacto que guarda la tabla (ialegal_session_user_id), no un prefijo del sessionId.
+ * rank solo viene informado en los resultados de búsqueda de texto completo.
+ */
+public record N8nSessionSummaryRow(String agentType,
+                                   String sessionId,
+                                   String userId,
+                                   long firstMessageId,
+                                   long lastMessageId,
+                                   long messageCount,
+                                   LocalDateTime createdAt,
+                                   LocalDateTime updatedAt,
+                                   String title,
+                                   Float rank) {
+}
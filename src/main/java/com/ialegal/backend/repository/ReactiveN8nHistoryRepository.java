@@ -0,0 +1,107 @@
+package com.ialegal.backend.repository;
+
+import com.ialegal.backend.config.AgentRegistry;
+import io.r2dbc.spi.Readable;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+
+import java.time.LocalDateTime;
+
+/**
+ * Lectura no bloqueante de las tablas de historial de N8N con R2DBC.
+ * Mismas sentencias que N8nHistoryRepository (mismos índices y mismo filtro por usuario),
+ * pero cada fila se emite en cuanto llega del driver, sin ocupar un hilo durante la consulta.
+ * Se activa con app.history.read-stack=reactive.
+ */
+@Repository
+@ConditionalOnProperty(name = "app.history.read-stack", havingValue = "reactive")
+@RequiredArgsConstructor
+public class ReactiveN8nHistoryRepository {
+
+    private final DatabaseClient historyDatabaseClient;
+    private final AgentRegistry agentRegistry;
+    private final N8nHistoryRepository historyRepository;
+
+    // Sesiones del usuario por última actividad (keyset sobre last_message_id)
+    public Flux<N8nSessionSummaryRow> findSessionSummariesPage(String userId, String agentType,
+                                                               long beforeLastMessageId, int limit) {
+        agentRegistry.get(agentType);
+        return historyDatabaseClient.sql(N8nHistoryRepository.SUMMARIES_PAGE)
+                .bind("userId", userId)
+                .bind("agentType", agentType)
+                .bind("beforeLastMessageId", beforeLastMessageId)
+                .bind("limit", limit)
+                .map(ReactiveN8nHistoryRepository::toSummary)
+                .all();
+    }
+
+    // Últimos mensajes de la sesión del usuario, en orden ascendente
+    public Flux<N8nMessageRow> findLatestBySessionIdAndUserId(String agentType, String sessionId, String userId, int limit) {
+        return historyDatabaseClient.sql(historyRepository.statements(agentType).latestMessages())
+                .bind("sessionId", sessionId)
+                .bind("userId", userId)
+                .bind("limit", limit)
+                .map(ReactiveN8nHistoryRepository::toMessage)
+                .all();
+    }
+
+    public Flux<N8nMessageRow> findBySessionIdAndUserIdBeforeId(String agentType, String sessionId, String userId,
+                                                                long beforeId, int limit) {
+        return historyDatabaseClient.sql(historyRepository.statements(agentType).messagesBefore())
+                .bind("sessionId", sessionId)
+                .bind("userId", userId)
+                .bind("beforeId", beforeId)
+                .bind("limit", limit)
+                .map(ReactiveN8nHistoryRepository::toMessage)
+                .all();
+    }
+
+    public Flux<N8nMessageRow> findBySessionIdAndUserIdAfterId(String agentType, String sessionId, String userId,
+                                                               long afterId, int limit) {
+        return historyDatabaseClient.sql(historyRepository.statements(agentType).messagesAfter())
+                .bind("sessionId", sessionId)
+                .bind("userId", userId)
+                .bind("afterId", afterId)
+                .bind("limit", limit)
+                .map(ReactiveN8nHistoryRepository::toMessage)
+                .all();
+    }
+
+    // Búsqueda de texto completo agrupada por sesión, de mayor a menor relevancia (primera página)
+    public Flux<N8nSessionSummaryRow> searchSessionsByContent(String userId, String agentType, String query, int limit) {
+        return historyDatabaseClient.sql(historyRepository.statements(agentType).searchSessions())
+                .bind("userId", userId)
+                .bind("agentType", agentType)
+                .bind("query", query)
+                .bind("afterRank", Double.MAX_VALUE)
+                .bind("afterSessionId", "")
+                .bind("limit", limit)
+                .map(ReactiveN8nHistoryRepository::toSummary)
+                .all();
+    }
+
+    private static N8nSessionSummaryRow toSummary(Readable row) {
+        return new N8nSessionSummaryRow(
+                row.get("agent_type", String.class),
+                row.get("session_id", String.class),
+                row.get("user_id", String.class),
+                row.get("first_message_id", Long.class),
+                row.get("last_message_id", Long.class),
+                row.get("message_count", Long.class),
+                row.get("created_at", LocalDateTime.class),
+                row.get("updated_at", LocalDateTime.class),
+                row.get("title", String.class),
+                row.get("rank", Float.class));
+    }
+
+    private static N8nMessageRow toMessage(Readable row) {
+        return new N8nMessageRow(
+                row.get("id", Long.class),
+                row.get("session_id", String.class),
+                row.get("message", String.class),
+                row.get("created_at", LocalDateTime.class));
+    }
+}
@@ -0,0 +1,316 @@
+package com.ialegal.backend.service;
+
+import com.ialegal.backend.config.AgentRegistry;
+import com.ialegal.backend.entity.ChatSession;
+import com.ialegal.backend.event.N8nHistoryChangedEvent;
+import com.ialegal.backend.event.N8nHistoryResyncEvent;
+import com.ialegal.backend.repository.N8nHistoryRepository;
+import com.ialegal.backend.repository.N8nHistoryTail;
+import com.ialegal.backend.repository.N8nMessageRow;
+import com.ialegal.backend.util.N8nMessageParser;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Proyecta el historial de N8N a chat_sessions / chat_messages (V8).
+ * Cada pasada lee un lote por agente por id creciente y, en una sola transacción, inserta
+ * o actualiza las sesiones, agrega los mensajes con su contenido ya parseado y avanza el
+ * watermark del agente en chat_projection_watermarks: tras un reinicio se retoma desde el
+ * último lote confirmado. El watermark no pasa de filas que aún podrían aparecer con un id
+ * menor (ver N8nHistoryTail), y los mensajes ya proyectados se descartan antes de reservar
+ * su número de orden. Una sesión que la base rechaza (p. ej. un session_id más largo que la
+ * columna) se registra y se salta en lugar de bloquear el lote del agente. Tras perder
+ * notificaciones (N8nHistoryResyncEvent) la siguiente pasada borra las sesiones proyectadas que
+ * ya no están en n8n_session_summaries. Exporta el retraso por agente en projection.lag.messages.
+ * Se activa con app.projection.enabled=true.
+ */
+@Service
+@ConditionalOnProperty(name = "app.projection.enabled", havingValue = "true")
+@RequiredArgsConstructor
+@Slf4j
+public class ChatHistoryProjector {
+
+    // Una sesión ya proyectada conserva su nombre y su fecha de creación
+    private static final String UPSERT_SESSION =
+            "INSERT INTO chat_sessions (session_id, user_id, agent_type, session_name, created_at, updated_at, " +
+            "message_count, is_active) " +
+            "VALUES (?, ialegal_session_user_id(?, ?), ?, ?, ?, ?, 0, true) " +
+            "ON CONFLICT (session_id) DO UPDATE SET " +
+            "updated_at = GREATEST(chat_sessions.updated_at, EXCLUDED.updated_at)";
+
+    // Reserva los números de orden del lote: devuelve el conteo anterior de la sesión
+    private static final String RESERVE_ORDER =
+            "UPDATE chat_sessions SET message_count = COALESCE(message_count, 0) + ? " +
+            "WHERE session_id = ? " +
+            "RETURNING message_count - ?";
+
+    // Mensajes de la sesión ya proyectados desde el lote: tras un reinicio se relee desde el watermark
+    private static final String PROJECTED_SOURCE_IDS =
+            "SELECT source_message_id FROM chat_messages " +
+            "WHERE session_id = ? AND source_message_id >= ?";
+
+    private static final String INSERT_MESSAGE =
+            "INSERT INTO chat_messages (session_id, source_message_id, content, is_user, created_at, " +
+            "message_order, agent_response) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT (session_id, source_message_id) DO NOTHING";
+
+    private static final String UPSERT_WATERMARK =
+            "INSERT INTO chat_projection_watermarks (agent_type, last_message_id, updated_at) " +
+            "VALUES (?, ?, CURRENT_TIMESTAMP) " +
+            "ON CONFLICT (agent_type) DO UPDATE SET last_message_id = EXCLUDED.last_message_id, " +
+            "updated_at = EXCLUDED.updated_at";
+
+    // Sesiones proyectadas desde N8N (con mensajes de origen) que ya no tienen resumen: se borraron
+    // mientras no llegaban notificaciones. Las creadas por la aplicación sin mensajes no se tocan
+    private static final String ORPHAN_SESSIONS =
+            "SELECT c.session_id FROM chat_sessions c " +
+            "WHERE c.agent_type = ? " +
+            "AND EXISTS (SELECT 1 FROM chat_messages m " +
+            "WHERE m.session_id = c.session_id AND m.source_message_id IS NOT NULL) " +
+            "AND NOT EXISTS (SELECT 1 FROM n8n_session_summaries s " +
+            "WHERE s.agent_type = ? AND s.session_id = c.session_id)";
+
+    private final AgentRegistry agentRegistry;
+    private final N8nHistoryRepository historyRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.projection.batch-size:500}")
+    private int batchSize;
+
+    // Lotes por agente en cada pasada: acota el tiempo que se ocupa el scheduler compartido
+    @Value("${app.projection.max-batches-per-run:20}")
+    private int maxBatchesPerRun;
+
+    @Value("${app.history.tail.safety-lag-ms:1000}")
+    private long safetyLagMs;
+
+    // Agentes con valor en ChatSession.AgentType: chat_sessions guarda el enum
+    private final Map<String, ChatSession.AgentType> projectedAgents = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> lag = new ConcurrentHashMap<>();
+    private TransactionTemplate transactionTemplate;
+    private Timer batchTimer;
+    private N8nHistoryTail tail;
+    private final AtomicBoolean resyncRequested = new AtomicBoolean();
+
+    @PostConstruct
+    void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        tail = new N8nHistoryTail(historyRepository, Duration.ofMillis(safetyLagMs));
+        batchTimer = Timer.builder("projection.batch")
+                .description("Duration of one projected batch of n8n messages")
+                .register(meterRegistry);
+
+        for (String agentType : agentRegistry.ids()) {
+            try {
+                projectedAgents.put(agentType, ChatSession.AgentType.fromValue(agentType));
+            } catch (IllegalArgumentException e) {
+                log.warn("Agent {} has no ChatSession.AgentType, its history is not projected", agentType);
+                continue;
+            }
+            AtomicLong agentLag = new AtomicLong();
+            lag.put(agentType, agentLag);
+            Gauge.builder("projection.lag.messages", agentLag, AtomicLong::get)
+                    .description("Messages of the n8n table not yet projected to chat_messages")
+                    .tag("agent", agentType)
+                    .register(meterRegistry);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.projection.interval-ms:5000}")
+    public void projectNewMessages() {
+        if (resyncRequested.getAndSet(false)) {
+            try {
+                removeOrphanSessions();
+            } catch (Exception e) {
+                resyncRequested.set(true);
+                log.error("Error reconciling projected sessions", e);
+            }
+        }
+        for (Map.Entry<String, ChatSession.AgentType> agent : projectedAgents.entrySet()) {
+            String agentType = agent.getKey();
+            try {
+                int projected = 0;
+                for (int i = 0; i < maxBatchesPerRun; i++) {
+                    int batch = projectBatch(agentType, agent.getValue());
+                    projected += batch;
+                    if (batch < batchSize) {
+                        break;
+                    }
+                }
+                updateLag(agentType);
+                if (projected > 0) {
+                    log.debug("Projected {} messages for agent {}", projected, agentType);
+                }
+            } catch (Exception e) {
+                // Se reintenta en la siguiente pasada desde el último lote confirmado
+                log.error("Error projecting history for agent {}", agentType, e);
+            }
+        }
+    }
+
+    private int projectBatch(String agentType, ChatSession.AgentType sessionAgentType) {
+        long savedWatermark = readWatermark(agentType);
+        N8nHistoryTail.Batch batch = tail.next(agentType, savedWatermark, batchSize);
+        List<N8nMessageRow> rows = batch.rows();
+        if (rows.isEmpty()) {
+            if (batch.watermark() > savedWatermark) {
+                jdbcTemplate.update(UPSERT_WATERMARK, agentType, batch.watermark());
+            }
+            tail.commit(batch);
+            return 0;
+        }
+
+        // El parseo se hace fuera de la transacción; solo la escritura es transaccional
+        Map<String, List<ProjectedMessage>> bySession = new LinkedHashMap<>();
+        for (N8nMessageRow row : rows) {
+            N8nMessageParser.MessageContent parsed = N8nMessageParser.parse(row.message());
+            String content = parsed != null && parsed.getContent() != null ? parsed.getContent() : "";
+            boolean isUser = parsed != null && "human".equals(parsed.getType());
+            LocalDateTime createdAt = row.createdAt() != null ? row.createdAt() : LocalDateTime.now();
+            bySession.computeIfAbsent(row.sessionId(), sessionId -> new ArrayList<>())
+                    .add(new ProjectedMessage(row.id(), content, isUser, createdAt));
+        }
+
+        try {
+            batchTimer.record(() -> transactionTemplate.executeWithoutResult(status -> {
+                writeSessions(agentType, sessionAgentType, bySession);
+                jdbcTemplate.update(UPSERT_WATERMARK, agentType, batch.watermark());
+            }));
+        } catch (DataIntegrityViolationException e) {
+            // Alguna fila no cabe en el modelo: sesión a sesión, saltando las que fallan
+            log.warn("Projected batch for agent {} was rejected, retrying session by session", agentType, e);
+            bySession.forEach((sessionId, messages) -> {
+                try {
+                    transactionTemplate.executeWithoutResult(status ->
+                            writeSessions(agentType, sessionAgentType, Map.of(sessionId, messages)));
+                } catch (DataIntegrityViolationException rejected) {
+                    log.warn("Skipping session {} of agent {} (messages {}..{}): {}", sessionId, agentType,
+                            messages.get(0).sourceId(), messages.get(messages.size() - 1).sourceId(),
+                            rejected.getMostSpecificCause().getMessage());
+                }
+            });
+            jdbcTemplate.update(UPSERT_WATERMARK, agentType, batch.watermark());
+        }
+        tail.commit(batch);
+        return rows.size();
+    }
+
+    private void writeSessions(String agentType, ChatSession.AgentType sessionAgentType,
+                               Map<String, List<ProjectedMessage>> bySession) {
+        List<Object[]> sessions = new ArrayList<>(bySession.size());
+        bySession.forEach((sessionId, messages) -> sessions.add(new Object[]{
+                sessionId, sessionId, agentType, sessionAgentType.name(), sessionName(messages),
+                messages.get(0).createdAt(), messages.get(messages.size() - 1).createdAt()}));
+        jdbcTemplate.batchUpdate(UPSERT_SESSION, sessions);
+
+        List<Object[]> inserts = new ArrayList<>();
+        bySession.forEach((sessionId, batchMessages) -> {
+            Set<Long> projected = new HashSet<>(jdbcTemplate.queryForList(PROJECTED_SOURCE_IDS, Long.class,
+                    sessionId, batchMessages.get(0).sourceId()));
+            List<ProjectedMessage> messages = batchMessages.stream()
+                    .filter(message -> !projected.contains(message.sourceId()))
+                    .toList();
+            if (messages.isEmpty()) {
+                return;
+            }
+            Integer previousCount = jdbcTemplate.queryForObject(RESERVE_ORDER, Integer.class,
+                    messages.size(), sessionId, messages.size());
+            int order = previousCount != null ? previousCount : 0;
+            for (ProjectedMessage message : messages) {
+                inserts.add(new Object[]{sessionId, message.sourceId(), message.content(), message.isUser(),
+                        message.createdAt(), ++order, message.isUser() ? null : message.content()});
+            }
+        });
+        jdbcTemplate.batchUpdate(INSERT_MESSAGE, inserts);
+    }
+
+    /**
+     * Las notificaciones DELETE perdidas no llegarán: la siguiente pasada concilia con
+     * n8n_session_summaries (no aquí, que es el hilo del LISTEN)
+     */
+    @EventListener
+    public void onResync(N8nHistoryResyncEvent event) {
+        resyncRequested.set(true);
+    }
+
+    private void removeOrphanSessions() {
+        for (Map.Entry<String, ChatSession.AgentType> agent : projectedAgents.entrySet()) {
+            List<String> orphans = jdbcTemplate.queryForList(ORPHAN_SESSIONS, String.class,
+                    agent.getValue().name(), agent.getKey());
+            for (String sessionId : orphans) {
+                deleteProjectedSession(sessionId);
+            }
+            if (!orphans.isEmpty()) {
+                log.info("Removed {} projected sessions of agent {} deleted while notifications were down",
+                        orphans.size(), agent.getKey());
+            }
+        }
+    }
+
+    private void deleteProjectedSession(String sessionId) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("DELETE FROM chat_messages WHERE session_id = ?", sessionId);
+            jdbcTemplate.update("DELETE FROM chat_sessions WHERE session_id = ?", sessionId);
+        });
+    }
+
+    @EventListener
+    public void onHistoryChanged(N8nHistoryChangedEvent event) {
+        if (event.getOperation() == N8nHistoryChangedEvent.Operation.DELETE) {
+            deleteProjectedSession(event.getSessionId());
+            log.debug("Removed projected session {}", event.getSessionId());
+        }
+    }
+
+    private long readWatermark(String agentType) {
+        List<Long> watermark = jdbcTemplate.queryForList(
+                "SELECT last_message_id FROM chat_projection_watermarks WHERE agent_type = ?", Long.class, agentType);
+        return watermark.isEmpty() ? 0L : watermark.get(0);
+    }
+
+    private void updateLag(String agentType) {
+        long behind = Math.max(0, historyRepository.findMaxId(agentType) - readWatermark(agentType));
+        lag.get(agentType).set(behind);
+    }
+
+    // Nombre inicial de la sesión: el primer mensaje del usuario del lote
+    private static String sessionName(List<ProjectedMessage> messages) {
+        for (ProjectedMessage message : messages) {
+            if (message.isUser() && !message.content().isBlank()) {
+                return N8nSessionService.generateSessionName(message.content());
+            }
+        }
+        return "Nueva conversación";
+    }
+
+    private record ProjectedMessage(long sourceId, String content, boolean isUser, LocalDateTime createdAt) {
+    }
+}
@@ -0,0 +1,82 @@
+package com.ialegal.backend.service;
+
+import com.ialegal.backend.util.SpanishSearchAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Embedder por hashing de términos: cada raíz (y cada par de raíces consecutivas)
+ * suma ±1 en una posición del vector elegida por hash. No necesita modelo ni red;
+ * acerca textos que comparten vocabulario aunque cambien acentos, plurales o el orden.
+ * Para un modelo real basta con registrar otro TextEmbedder como @Primary.
+ */
+@Component
+public class HashingTextEmbedder implements TextEmbedder {
+
+    private static final int DIMENSIONS = 256;
+    private static final int SEED = 0x1a1e6a1;
+    private static final float BIGRAM_WEIGHT = 0.5f;
+
+    private final Analyzer analyzer = new SpanishSearchAnalyzer();
+
+    @Override
+    public int dimensions() {
+        return DIMENSIONS;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[DIMENSIONS];
+        if (text == null || text.isBlank()) {
+            return vector;
+        }
+
+        try (TokenStream stream = analyzer.tokenStream("content", text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            String previous = null;
+            while (stream.incrementToken()) {
+                String current = term.toString();
+                add(vector, current, 1f);
+                if (previous != null) {
+                    add(vector, previous + " " + current, BIGRAM_WEIGHT);
+                }
+                previous = current;
+            }
+            stream.end();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        normalize(vector);
+        return vector;
+    }
+
+    private void add(float[] vector, String feature, float weight) {
+        int hash = StringHelper.murmurhash3_x86_32(new BytesRef(feature), SEED);
+        // Bit de signo independiente de la posición: reduce el sesgo de las colisiones
+        float sign = (hash & 0x80000000) == 0 ? 1f : -1f;
+        vector[Math.floorMod(hash, DIMENSIONS)] += sign * weight;
+    }
+
+    private void normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            return;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+    }
+}
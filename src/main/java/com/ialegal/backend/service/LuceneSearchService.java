@@ -0,0 +1,349 @@
+package com.ialegal.backend.service;
+
+import com.ialegal.backend.config.AgentRegistry;
+import com.ialegal.backend.dto.SearchHitDto;
+import com.ialegal.backend.event.N8nHistoryChangedEvent;
+import com.ialegal.backend.repository.N8nHistoryRepository;
+import com.ialegal.backend.repository.N8nHistoryTail;
+import com.ialegal.backend.repository.N8nMessageRow;
+import com.ialegal.backend.util.SessionIds;
+import com.ialegal.backend.util.SpanishSearchAnalyzer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.simple.SimpleQueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.search.grouping.GroupDocs;
+import org.apache.lucene.search.grouping.GroupingSearch;
+import org.apache.lucene.search.grouping.TopGroups;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Índice Lucene en disco local sobre las tablas de historial de N8N.
+ * Se alimenta leyendo cada tabla por id creciente (N8nHistoryTail); el watermark de cada
+ * agente se guarda en los datos del commit, así que tras una caída se retoma desde
+ * el último commit sin perder mensajes, y updateDocument evita duplicar los releídos.
+ * Se activa con app.search.engine=lucene.
+ */
+@Service
+@ConditionalOnProperty(name = "app.search.engine", havingValue = "lucene")
+@RequiredArgsConstructor
+@Slf4j
+public class LuceneSearchService implements SmartLifecycle {
+
+    private static final String FIELD_KEY = "key"; // agentType:id, único por documento
+    private static final String FIELD_AGENT = "agent_type";
+    private static final String FIELD_SESSION = "session_id";
+    private static final String FIELD_USER = "user_id"; // dueño exacto de la sesión (SessionIds.userIdOf)
+    private static final String FIELD_MESSAGE_ID = "message_id";
+    private static final String FIELD_CONTENT = "content";
+    private static final String WATERMARK_PREFIX = "watermark.";
+
+    private final AgentRegistry agentRegistry;
+    private final N8nHistoryRepository historyRepository;
+
+    @Value("${app.search.lucene.path:./data/search-index}")
+    private String indexPath;
+
+    @Value("${app.search.lucene.tail-interval-ms:5000}")
+    private long tailIntervalMs;
+
+    @Value("${app.search.lucene.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${app.history.tail.safety-lag-ms:1000}")
+    private long safetyLagMs;
+
+    private final Analyzer analyzer = new SpanishSearchAnalyzer();
+    private final Map<String, Long> watermarks = new ConcurrentHashMap<>();
+
+    private Directory directory;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+    private ScheduledExecutorService tailer;
+    private N8nHistoryTail historyTail;
+    private volatile boolean running;
+
+    // Sesiones borradas en la base pendientes de quitar del índice (las aplica el hilo del tailer)
+    private final Queue<SessionKey> pendingDeletes = new ConcurrentLinkedQueue<>();
+    private boolean uncommittedDeletes;
+
+    @Override
+    public void start() {
+        try {
+            directory = FSDirectory.open(Path.of(indexPath));
+            writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                    .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+            searcherManager = new SearcherManager(writer, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open search index at " + indexPath, e);
+        }
+
+        // Retomar desde lo confirmado en el último commit
+        Iterable<Map.Entry<String, String>> commitData = writer.getLiveCommitData();
+        if (commitData != null) {
+            for (Map.Entry<String, String> entry : commitData) {
+                if (entry.getKey().startsWith(WATERMARK_PREFIX)) {
+                    watermarks.put(entry.getKey().substring(WATERMARK_PREFIX.length()), Long.parseLong(entry.getValue()));
+                }
+            }
+        }
+        log.info("Search index opened at {} with watermarks {}", indexPath, watermarks);
+        historyTail = new N8nHistoryTail(historyRepository, Duration.ofMillis(safetyLagMs));
+
+        // Hilo propio: la carga inicial puede ser larga y no debe bloquear el scheduler compartido
+        tailer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lucene-history-tailer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        tailer.scheduleWithFixedDelay(this::tailAll, 0, tailIntervalMs, TimeUnit.MILLISECONDS);
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        tailer.shutdown();
+        try {
+            tailer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            applyPendingDeletes();
+            commit();
+            searcherManager.close();
+            writer.close();
+            directory.close();
+        } catch (IOException e) {
+            log.error("Error closing search index", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Sesiones del usuario que coinciden con la consulta, agrupadas y ordenadas por relevancia.
+     * Cada resultado incluye el fragmento del mensaje que mejor coincide.
+     */
+    public List<SearchHitDto> search(String userId, String agentType, String queryText, int offset, int limit) {
+        if (!running) {
+            // SmartLifecycle arranca el índice después del servidor web
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Search index is starting");
+        }
+        SimpleQueryParser parser = new SimpleQueryParser(analyzer, FIELD_CONTENT);
+        parser.setDefaultOperator(BooleanClause.Occur.MUST);
+        Query contentQuery = parser.parse(queryText);
+
+        // Filtros sin puntuación: agente y dueño exacto (un prefijo "userId_" incluiría a otros usuarios)
+        Query query = new BooleanQuery.Builder()
+                .add(contentQuery, BooleanClause.Occur.MUST)
+                .add(new TermQuery(new Term(FIELD_AGENT, agentType)), BooleanClause.Occur.FILTER)
+                .add(new TermQuery(new Term(FIELD_USER, userId)), BooleanClause.Occur.FILTER)
+                .build();
+
+        GroupingSearch grouping = new GroupingSearch(FIELD_SESSION);
+        grouping.setGroupSort(Sort.RELEVANCE);
+        grouping.setSortWithinGroup(Sort.RELEVANCE);
+        grouping.setGroupDocsLimit(1);
+
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                TopGroups<BytesRef> groups = grouping.search(searcher, query, offset, limit);
+                if (groups == null || groups.groups.length == 0) {
+                    return List.of();
+                }
+
+                ScoreDoc[] bestDocs = new ScoreDoc[groups.groups.length];
+                for (int i = 0; i < bestDocs.length; i++) {
+                    bestDocs[i] = groups.groups[i].scoreDocs[0];
+                }
+                String[] snippets = UnifiedHighlighter.builder(searcher, analyzer).build()
+                        .highlight(FIELD_CONTENT, contentQuery,
+                                new TopDocs(new TotalHits(bestDocs.length, TotalHits.Relation.EQUAL_TO), bestDocs));
+
+                List<SearchHitDto> hits = new ArrayList<>(bestDocs.length);
+                for (int i = 0; i < bestDocs.length; i++) {
+                    GroupDocs<BytesRef> group = groups.groups[i];
+                    hits.add(SearchHitDto.builder()
+                            .sessionId(group.groupValue.utf8ToString())
+                            .snippet(snippets[i])
+                            .score(group.maxScore)
+                            .build());
+                }
+                return hits;
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Search index error", e);
+        }
+    }
+
+    /**
+     * Quita una sesión del índice cuando se borra en la base (notificación DELETE).
+     * Solo la encola: el borrado lo aplica el hilo del tailer entre lotes, así que quien notifica
+     * no espera a que termine una carga larga.
+     */
+    public void deleteSession(String agentType, String sessionId) {
+        if (!running) {
+            return; // al arrancar, el índice se pone al día desde los watermarks
+        }
+        pendingDeletes.add(new SessionKey(agentType, sessionId));
+        try {
+            tailer.execute(this::applyPendingDeletes);
+        } catch (RejectedExecutionException e) {
+            // Parando: stop() aplica lo que quede en la cola antes del último commit
+        }
+    }
+
+    @EventListener
+    public void onHistoryChanged(N8nHistoryChangedEvent event) {
+        if (event.getOperation() == N8nHistoryChangedEvent.Operation.DELETE) {
+            deleteSession(event.getAgentType(), event.getSessionId());
+        }
+    }
+
+    private void tailAll() {
+        for (String agentType : agentRegistry.ids()) {
+            try {
+                tail(agentType);
+            } catch (Exception e) {
+                // Se reintenta en la siguiente pasada desde el último commit
+                log.error("Error indexing history for agent {}", agentType, e);
+            }
+        }
+        try {
+            // Borrados aplicados sin lote detrás: un solo commit por pasada
+            if (uncommittedDeletes) {
+                commit();
+            }
+        } catch (IOException e) {
+            log.error("Error committing search index", e);
+        }
+    }
+
+    // Solo desde el hilo del tailer; visibles en la búsqueda al refrescar, duraderos en el siguiente commit
+    private void applyPendingDeletes() {
+        SessionKey session;
+        while ((session = pendingDeletes.poll()) != null) {
+            try {
+                writer.deleteDocuments(new BooleanQuery.Builder()
+                        .add(new TermQuery(new Term(FIELD_AGENT, session.agentType())), BooleanClause.Occur.FILTER)
+                        .add(new TermQuery(new Term(FIELD_SESSION, session.sessionId())), BooleanClause.Occur.FILTER)
+                        .build());
+                uncommittedDeletes = true;
+                log.debug("Removed session {} from search index", session.sessionId());
+            } catch (IOException e) {
+                log.error("Error removing session {} from search index", session.sessionId(), e);
+            }
+        }
+        try {
+            searcherManager.maybeRefresh();
+        } catch (IOException e) {
+            log.error("Error refreshing search index", e);
+        }
+    }
+
+    private void tail(String agentType) throws IOException {
+        while (running) {
+            long watermark = watermarks.getOrDefault(agentType, 0L);
+            N8nHistoryTail.Batch batch = historyTail.next(agentType, watermark, batchSize);
+            List<N8nMessageRow> rows = batch.rows();
+            if (rows.isEmpty() && batch.watermark() == watermark) {
+                historyTail.commit(batch);
+                return;
+            }
+
+            for (N8nMessageRow row : rows) {
+                // updateDocument es idempotente: reindexar tras una caída no duplica
+                writer.updateDocument(new Term(FIELD_KEY, agentType + ":" + row.id()), toDocument(agentType, row));
+            }
+            // Después de indexar el lote: sus filas pueden ser de una sesión borrada mientras se leía
+            applyPendingDeletes();
+            watermarks.put(agentType, batch.watermark());
+            commit();
+            historyTail.commit(batch);
+            log.debug("Indexed {} messages for agent {} with watermark {}", rows.size(), agentType, batch.watermark());
+
+            if (rows.size() < batchSize) {
+                return;
+            }
+        }
+    }
+
+    // Documentos y watermarks se confirman juntos en el mismo commit
+    private void commit() throws IOException {
+        Map<String, String> commitData = new LinkedHashMap<>();
+        watermarks.forEach((agentType, id) -> commitData.put(WATERMARK_PREFIX + agentType, Long.toString(id)));
+        writer.setLiveCommitData(commitData.entrySet());
+        writer.commit();
+        uncommittedDeletes = false;
+        searcherManager.maybeRefresh();
+    }
+
+    private Document toDocument(String agentType, N8nMessageRow row) {
+        String content = row.content();
+        Document document = new Document();
+        document.add(new StringField(FIELD_KEY, agentType + ":" + row.id(), Field.Store.NO));
+        document.add(new StringField(FIELD_AGENT, agentType, Field.Store.NO));
+        document.add(new StringField(FIELD_SESSION, row.sessionId(), Field.Store.NO));
+        document.add(new StringField(FIELD_USER, SessionIds.userIdOf(row.sessionId(), agentType), Field.Store.NO));
+        document.add(new SortedDocValuesField(FIELD_SESSION, new BytesRef(row.sessionId())));
+        document.add(new StoredField(FIELD_MESSAGE_ID, row.id()));
+        document.add(new TextField(FIELD_CONTENT, content != null ? content : "", Field.Store.YES));
+        return document;
+    }
+
+    private record SessionKey(String agentType, String sessionId) {
+    }
+}
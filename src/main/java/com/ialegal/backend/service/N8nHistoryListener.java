@@ -0,0 +1,207 @@
+package com.ialegal.backend.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ialegal.backend.event.N8nHistoryChangedEvent;
+import com.ialegal.backend.event.N8nHistoryResyncEvent;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escucha las notificaciones que emiten los triggers de las tablas de historial
+ * (canal ialegal_history) con una única conexión dedicada, fuera del pool,
+ * y las publica como {@link N8nHistoryChangedEvent} dentro de la aplicación.
+ * Tras cada (re)conexión publica {@link N8nHistoryResyncEvent}, y en cada espera sin
+ * notificaciones hace un SELECT 1 para detectar conexiones medio abiertas (un corte de red
+ * sin FIN/RST), que de otro modo dejarían el LISTEN esperando para siempre.
+ * Los eventos no se publican en el hilo del LISTEN: se reparten por session_id entre unos
+ * pocos hilos con cola acotada, así un cliente SSE lento no frena la lectura de notificaciones
+ * y los mensajes de una misma sesión conservan su orden.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class N8nHistoryListener implements SmartLifecycle {
+
+    static final String CHANNEL = "ialegal_history";
+
+    private final DataSource dataSource;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectMapper objectMapper;
+
+    @Value("${app.notifications.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.notifications.poll-timeout-ms:10000}")
+    private int pollTimeoutMs;
+
+    @Value("${app.notifications.reconnect-delay-ms:5000}")
+    private long reconnectDelayMs;
+
+    // Plazo de lectura del SELECT 1: sin respuesta en este tiempo la conexión se da por caída
+    @Value("${app.notifications.socket-timeout-s:30}")
+    private int socketTimeoutSeconds;
+
+    // Hilos de publicación; cada sesión va siempre al mismo
+    @Value("${app.notifications.dispatch-threads:4}")
+    private int dispatchThreads;
+
+    @Value("${app.notifications.dispatch-queue-capacity:1000}")
+    private int dispatchQueueCapacity;
+
+    private volatile boolean running;
+    private Thread worker;
+    private ThreadPoolExecutor[] dispatchers;
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            log.info("History notifications disabled");
+            return;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("n8n-history-dispatch-");
+        threadFactory.setDaemon(true);
+        dispatchers = new ThreadPoolExecutor[Math.max(1, dispatchThreads)];
+        for (int i = 0; i < dispatchers.length; i++) {
+            dispatchers[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(dispatchQueueCapacity), threadFactory);
+        }
+        running = true;
+        worker = new Thread(this::listenLoop, "n8n-history-listener");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+        if (dispatchers != null) {
+            for (ThreadPoolExecutor dispatcher : dispatchers) {
+                dispatcher.shutdownNow();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void listenLoop() {
+        while (running) {
+            try (Connection connection = openConnection()) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                log.info("Listening for history notifications on channel {}", CHANNEL);
+                // Lo ocurrido antes del LISTEN no llegará nunca como notificación
+                eventPublisher.publishEvent(new N8nHistoryResyncEvent());
+
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(pollTimeoutMs);
+                    if (notifications == null || notifications.length == 0) {
+                        ping(connection);
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        dispatch(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (running) {
+                    log.warn("History listener connection lost, reconnecting in {} ms: {}", reconnectDelayMs, e.getMessage());
+                    sleepBeforeReconnect();
+                }
+            }
+        }
+    }
+
+    private Connection openConnection() throws SQLException {
+        // Conexión propia: un LISTEN no debe ocupar permanentemente una conexión del pool
+        HikariDataSource hikari = dataSource.unwrap(HikariDataSource.class);
+        Properties properties = new Properties();
+        if (hikari.getUsername() != null) {
+            properties.setProperty("user", hikari.getUsername());
+        }
+        if (hikari.getPassword() != null) {
+            properties.setProperty("password", hikari.getPassword());
+        }
+        // getNotifications(timeout) usa su propio plazo; este vale para el SELECT 1
+        properties.setProperty("socketTimeout", String.valueOf(socketTimeoutSeconds));
+        properties.setProperty("tcpKeepAlive", "true");
+        return DriverManager.getConnection(hikari.getJdbcUrl(), properties);
+    }
+
+    // Un LISTEN inactivo no envía nada: la conexión solo se comprueba si se habla con el servidor
+    private static void ping(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SELECT 1");
+        }
+    }
+
+    private void dispatch(String payload) {
+        try {
+            JsonNode json = objectMapper.readTree(payload);
+            N8nHistoryChangedEvent event = N8nHistoryChangedEvent.builder()
+                    .operation("delete".equals(json.path("op").asText())
+                            ? N8nHistoryChangedEvent.Operation.DELETE
+                            : N8nHistoryChangedEvent.Operation.INSERT)
+                    .agentType(json.path("agentType").asText())
+                    .sessionId(json.path("sessionId").asText())
+                    .messageId(json.hasNonNull("messageId") ? json.get("messageId").asLong() : null)
+                    .build();
+            publish(event);
+        } catch (Exception e) {
+            log.error("Error dispatching history notification: {}", payload, e);
+        }
+    }
+
+    private void publish(N8nHistoryChangedEvent event) {
+        ThreadPoolExecutor dispatcher = dispatchers[Math.floorMod(event.getSessionId().hashCode(), dispatchers.length)];
+        try {
+            dispatcher.execute(() -> {
+                try {
+                    eventPublisher.publishEvent(event);
+                } catch (Exception e) {
+                    // Un listener con errores no debe cortar la publicación de los siguientes
+                    log.error("Error publishing history event for session: {}", event.getSessionId(), e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Cola llena: el evento se pierde como si se hubiera caído la conexión
+            log.warn("History event queue full, dropping event for session {} and resyncing", event.getSessionId());
+            eventPublisher.publishEvent(new N8nHistoryResyncEvent());
+        }
+    }
+
+    private void sleepBeforeReconnect() {
+        try {
+            Thread.sleep(reconnectDelayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,17 +1,40 @@
 package com.ialegal.backend.service;
 
+import com.ialegal.backend.config.AgentRegistry;
 import com.ialegal.backend.dto.*;
-import com.ialegal.backend.entity.*;
 import com.ialegal.backend.repository.*;
+import com.ialegal.backend.util.CursorCodec;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDateTime;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -19,28 +42,50 @@ import java.util.stream.Collectors;
 @Slf4j
 public class N8nSessionService {
 
-    private final N8nChatHistoryContratosRepository contratosRepository;
-    private final N8nChatHistoryLaboralRepository laboralRepository;
-    private final N8nChatHistoryDefensaRepository defensaRepository;
-    private final N8nChatHistoryGeneralRepository generalRepository;
-
-    /**
-     * Obtener el repositorio correcto según el tipo de agente
-     */
-    @SuppressWarnings("unchecked")
-    private <T extends N8nChatHistoryBase> N8nChatHistoryBaseRepository<T> getRepository(String agentType) {
-        return switch (agentType) {
-            case "ia-contratos" -> (N8nChatHistoryBaseRepository<T>) contratosRepository;
-            case "ia-laboral" -> (N8nChatHistoryBaseRepository<T>) laboralRepository;
-            case "ia-defensa-consumidor" -> (N8nChatHistoryBaseRepository<T>) defensaRepository;
-            case "ia-general" -> (N8nChatHistoryBaseRepository<T>) generalRepository;
-            default -> {
-                log.warn("Unknown agent type: {}, defaulting to general", agentType);
-                yield (N8nChatHistoryBaseRepository<T>) generalRepository;
-            }
-        };
+    private static final int DEFAULT_SESSION_PAGE_SIZE = 20;
+    private static final int MAX_SESSION_PAGE_SIZE = 100;
+    private static final int DEFAULT_MESSAGE_PAGE_SIZE = 50;
+    private static final int MAX_MESSAGE_PAGE_SIZE = 200;
+
+    // Valor de agentType para buscar en todos los agentes a la vez
+    public static final String ALL_AGENTS = "all";
+
+    private final AgentRegistry agentRegistry;
+    private final N8nHistoryRepository historyRepository;
+    private final SessionListCache sessionListCache;
+    private final ObjectProvider<LuceneSearchService> luceneSearchService;
+    private final ObjectProvider<SemanticSearchService> semanticSearchService;
+    private final Environment environment;
+
+    @Value("${app.search.fan-out.threads:8}")
+    private int searchThreads;
+
+    @Value("${app.search.fan-out.timeout-ms:3000}")
+    private long searchTimeoutMs;
+
+    // Pool propio para la búsqueda en paralelo: acota las conexiones que puede ocupar
+    private Executor searchExecutor;
+
+    @PostConstruct
+    void startSearchExecutor() {
+        if (Threading.VIRTUAL.isActive(environment)) {
+            // Con hilos virtuales un hilo por consulta; las conexiones las acota la compuerta del DataSource
+            SimpleAsyncTaskExecutor virtualExecutor = new SimpleAsyncTaskExecutor("session-search-");
+            virtualExecutor.setVirtualThreads(true);
+            searchExecutor = virtualExecutor;
+        } else {
+            searchExecutor = Executors.newFixedThreadPool(searchThreads, new CustomizableThreadFactory("session-search-"));
+        }
     }
 
+    @PreDestroy
+    void stopSearchExecutor() {
+        if (searchExecutor instanceof ExecutorService executorService) {
+            executorService.shutdownNow();
+        } else if (searchExecutor instanceof SimpleAsyncTaskExecutor virtualExecutor) {
+            virtualExecutor.close();
+        }
+    }
 
     /**
      * Crear nueva sesión (solo genera sessionId, N8N crea los mensajes)
@@ -50,6 +95,7 @@ public class N8nSessionService {
         log.info("Generating new sessionId for user: {} with agent: {}", userId, request.getAgentType());
 
         String agentType = request.getAgentType();
+        agentRegistry.get(agentType);
 
         // Generar sessionId único (formato: userId_agentType_timestamp_uuid)
         String sessionId = generateSessionId(userId, agentType);
@@ -78,89 +124,224 @@ public class N8nSessionService {
 
     /**
      * Obtener sesiones de un usuario por agente
+     * Sin transacción: si el listado está en caché no se toma ninguna conexión del pool
      */
-    @Transactional(readOnly = true)
     public List<SessionDto> getUserSessionsByAgent(String userId, String agentType) {
-        log.debug("Getting sessions for user: {} and agent: {}", userId, agentType);
+        return sessionListCache.get(userId, agentType, "all", () -> {
+            log.debug("Getting sessions for user: {} and agent: {}", userId, agentType);
 
-        N8nChatHistoryBaseRepository<N8nChatHistoryBase> repository = getRepository(agentType);
+            // Obtener resúmenes de sesiones agrupadas
+            List<N8nSessionSummaryRow> sessionSummaries = historyRepository
+                    .findSessionSummariesPage(userId, agentType, Long.MAX_VALUE, Integer.MAX_VALUE);
 
-        // Obtener resúmenes de sesiones agrupadas
-        List<Object[]> sessionSummaries = repository
-                .findSessionSummariesByUserIdAndAgentType(userId, agentType);
-
-        return sessionSummaries.stream()
-                .map(summary -> convertSummaryToSessionDto(summary, agentType))
-                .collect(Collectors.toList());
+            return sessionSummaries.stream()
+                    .map(this::convertSummaryToSessionDto)
+                    .toList();
+        });
     }
 
     /**
-     * Obtener sesión específica con mensajes
+     * Obtener una página de sesiones de un usuario por agente, ordenadas por última actividad.
+     * El cursor "after" es opaco y se obtiene de nextCursor de la página anterior.
      */
-    @Transactional(readOnly = true)
-    public SessionDto getSession(String sessionId, String userId, String agentType) {
-        log.debug("Getting session: {} for user: {}", sessionId, userId);
+    public CursorPageDto<SessionDto> getUserSessionsByAgentPage(String userId, String agentType, Integer limit, String after) {
+        int pageSize = limit != null ? Math.max(1, Math.min(limit, MAX_SESSION_PAGE_SIZE)) : DEFAULT_SESSION_PAGE_SIZE;
+        long beforeLastMessageId = after != null ? CursorCodec.decodeLong(after) : Long.MAX_VALUE;
+
+        return sessionListCache.get(userId, agentType, "page:" + pageSize + ":" + beforeLastMessageId, () -> {
+            log.debug("Getting session page for user: {} and agent: {} (limit: {}, before id: {})",
+                    userId, agentType, pageSize, beforeLastMessageId);
+
+            // Se pide una fila extra para saber si hay una página siguiente
+            List<N8nSessionSummaryRow> sessionSummaries = historyRepository
+                    .findSessionSummariesPage(userId, agentType, beforeLastMessageId, pageSize + 1);
+
+            String nextCursor = null;
+            if (sessionSummaries.size() > pageSize) {
+                sessionSummaries = sessionSummaries.subList(0, pageSize);
+                nextCursor = CursorCodec.encodeLong(sessionSummaries.get(pageSize - 1).lastMessageId());
+            }
 
-        N8nChatHistoryBaseRepository<N8nChatHistoryBase> repository = getRepository(agentType);
+            List<SessionDto> sessions = sessionSummaries.stream()
+                    .map(this::convertSummaryToSessionDto)
+                    .toList();
 
-        // Verificar que la sesión pertenece al usuario
-        if (!repository.existsBySessionIdAndUserId(sessionId, userId)) {
-            throw new RuntimeException("Session not found or access denied: " + sessionId);
+            return CursorPageDto.<SessionDto>builder()
+                    .items(sessions)
+                    .nextCursor(nextCursor)
+                    .build();
+        });
+    }
+
+    /**
+     * Sesiones recientes del usuario en todos los agentes, por última actividad.
+     * Una única consulta sobre n8n_session_summaries, que ya reúne las cuatro tablas de historial.
+     */
+    public CursorPageDto<SessionDto> getRecentSessions(String userId, Integer limit, String after) {
+        int pageSize = limit != null ? Math.max(1, Math.min(limit, MAX_SESSION_PAGE_SIZE)) : DEFAULT_SESSION_PAGE_SIZE;
+        LocalDateTime beforeUpdatedAt = LocalDateTime.of(9999, 12, 31, 0, 0);
+        String beforeAgentType = "";
+        String beforeSessionId = "";
+        if (after != null) {
+            String[] parts = CursorCodec.decode(after).split("\\|", 3);
+            try {
+                beforeUpdatedAt = LocalDateTime.parse(parts[0]);
+                beforeAgentType = parts[1];
+                beforeSessionId = parts[2];
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + after);
+            }
         }
+        log.debug("Getting recent sessions for user: {} (limit: {})", userId, pageSize);
 
-        // Obtener mensajes de la sesión ordenados por ID
-        List<N8nChatHistoryBase> messages = repository.findBySessionIdOrderByIdAsc(sessionId);
+        // Se pide una fila extra para saber si hay una página siguiente
+        List<N8nSessionSummaryRow> summaries = historyRepository.findRecentSessionSummaries(
+                userId, beforeUpdatedAt, beforeAgentType, beforeSessionId, pageSize + 1);
 
-        if (messages.isEmpty()) {
-            throw new RuntimeException("Session not found: " + sessionId);
+        String nextCursor = null;
+        if (summaries.size() > pageSize) {
+            summaries = summaries.subList(0, pageSize);
+            N8nSessionSummaryRow last = summaries.get(pageSize - 1);
+            nextCursor = CursorCodec.encode(last.updatedAt() + "|" + last.agentType() + "|" + last.sessionId());
         }
 
-        // Convertir a DTOs
-        List<MessageDto> messageDtos = messages.stream()
-                .map(this::convertHistoryToMessageDto)
+        List<SessionDto> sessions = summaries.stream()
+                .map(this::convertSummaryToSessionDto)
+                .collect(Collectors.toList());
+
+        return CursorPageDto.<SessionDto>builder()
+                .items(sessions)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    /**
+     * Versión actual del feed de sesiones recientes (para ETag)
+     */
+    public VersionStampDto getRecentSessionsVersion(String userId) {
+        return historyRepository.findRecentVersion(userId);
+    }
+
+    /**
+     * Obtener sesión específica con sus últimos mensajes
+     * Los mensajes anteriores se piden con getSessionMessages(before=id)
+     */
+    public SessionDto getSession(String sessionId, String userId, String agentType) {
+        log.debug("Getting session: {} for user: {}", sessionId, userId);
+
+        SessionDto session = getSessionHeader(sessionId, userId, agentType);
+
+        // Solo la cola de la sesión, ordenada por ID
+        List<MessageDto> messageDtos = historyRepository
+                .findLatestBySessionIdAndUserId(agentType, sessionId, userId, DEFAULT_MESSAGE_PAGE_SIZE).stream()
+                .map(this::convertRowToMessageDto)
                 .collect(Collectors.toList());
 
-        // Crear SessionDto
-        N8nChatHistoryBase firstUserMsg = messages.stream()
-                .filter(N8nChatHistoryBase::isUserMessage)
-                .findFirst()
-                .orElse(messages.get(0));
+        session.setMessages(messageDtos);
+        return session;
+    }
 
-        String sessionName = generateSessionName(firstUserMsg.getContent());
+    /**
+     * Datos de una sesión del usuario sin sus mensajes
+     */
+    public SessionDto getSessionHeader(String sessionId, String userId, String agentType) {
+        // El resumen se filtra por usuario: vacío si la sesión no existe o no le pertenece
+        N8nSessionSummaryRow summary = historyRepository.findSessionSummary(agentType, sessionId, userId)
+                .orElseThrow(() -> new RuntimeException("Session not found or access denied: " + sessionId));
 
         return SessionDto.builder()
                 .sessionId(sessionId)
                 .userId(userId)
                 .agentType(agentType)
-                .sessionName(sessionName)
-                .createdAt(null) // No tenemos timestamp real
-                .updatedAt(null)
-                .messageCount(messages.size())
+                .sessionName(generateSessionName(summary.title()))
+                .createdAt(summary.createdAt())
+                .updatedAt(summary.updatedAt())
+                .messageCount((int) summary.messageCount())
                 .isActive(true)
-                .messages(messageDtos)
                 .build();
     }
 
     /**
-     * Obtener mensajes de una sesión
+     * Obtener una página de mensajes de una sesión, siempre en orden ascendente.
+     * Sin cursores devuelve los últimos mensajes; con before/after pagina por id.
+     * nextCursor es el id a usar en la siguiente petición en la misma dirección.
      */
-    @Transactional(readOnly = true)
-    public List<MessageDto> getSessionMessages(String sessionId, String userId, String agentType) {
-        log.debug("Getting messages for session: {}", sessionId);
+    public CursorPageDto<MessageDto> getSessionMessages(String sessionId, String userId, String agentType,
+                                                        Integer limit, Long beforeId, Long afterId,
+                                                        boolean includeTotal) {
+        log.debug("Getting messages for session: {} (limit: {}, before: {}, after: {})", sessionId, limit, beforeId, afterId);
+
+        if (beforeId != null && afterId != null) {
+            throw new IllegalArgumentException("Use either 'before' or 'after', not both");
+        }
+        int pageSize = limit != null ? Math.max(1, Math.min(limit, MAX_MESSAGE_PAGE_SIZE)) : DEFAULT_MESSAGE_PAGE_SIZE;
+
+        // La pertenencia al usuario se verifica en la misma consulta.
+        // Una página vacía cubre tanto sesiones ajenas como sesiones nuevas sin mensajes aún.
+        // Se pide una fila extra para saber si quedan mensajes en esa dirección
+        List<N8nMessageRow> messages;
+        if (afterId != null) {
+            messages = historyRepository.findBySessionIdAndUserIdAfterId(
+                    agentType, sessionId, userId, afterId, pageSize + 1);
+        } else if (beforeId != null) {
+            messages = historyRepository.findBySessionIdAndUserIdBeforeId(
+                    agentType, sessionId, userId, beforeId, pageSize + 1);
+        } else {
+            messages = historyRepository.findLatestBySessionIdAndUserId(
+                    agentType, sessionId, userId, pageSize + 1);
+        }
 
-        N8nChatHistoryBaseRepository<N8nChatHistoryBase> repository = getRepository(agentType);
+        String nextCursor = null;
+        if (messages.size() > pageSize) {
+            if (afterId != null) {
+                messages = messages.subList(0, pageSize);
+                nextCursor = String.valueOf(messages.get(pageSize - 1).id());
+            } else {
+                messages = messages.subList(1, messages.size());
+                nextCursor = String.valueOf(messages.get(0).id());
+            }
+        }
 
-        // Verificar si la sesión existe
-        // Si no existe, retornar array vacío (puede ser una sesión nueva sin mensajes aún)
-        if (!repository.existsBySessionIdAndUserId(sessionId, userId)) {
-            log.debug("Session {} not found in DB yet - returning empty array (new session)", sessionId);
-            return Collections.emptyList();
+        Long totalCount = null;
+        if (includeTotal) {
+            totalCount = historyRepository.findSessionSummary(agentType, sessionId, userId)
+                    .map(N8nSessionSummaryRow::messageCount)
+                    .orElse(0L);
         }
 
-        List<N8nChatHistoryBase> messages = repository.findBySessionIdOrderByIdAsc(sessionId);
-        return messages.stream()
-                .map(this::convertHistoryToMessageDto)
+        List<MessageDto> messageDtos = messages.stream()
+                .map(this::convertRowToMessageDto)
                 .collect(Collectors.toList());
+
+        return CursorPageDto.<MessageDto>builder()
+                .items(messageDtos)
+                .nextCursor(nextCursor)
+                .totalCount(totalCount)
+                .build();
+    }
+
+    /**
+     * Obtener un mensaje por id (usado por el stream de mensajes nuevos)
+     */
+    public MessageDto getMessage(String agentType, Long messageId) {
+        return historyRepository.findMessageById(agentType, messageId)
+                .map(this::convertRowToMessageDto)
+                .orElse(null);
+    }
+
+    /**
+     * Versión actual del listado de sesiones de un usuario por agente (para ETag)
+     */
+    public VersionStampDto getSessionListVersion(String userId, String agentType) {
+        return sessionListCache.get(userId, agentType, "version",
+                () -> historyRepository.findSessionListVersion(userId, agentType));
+    }
+
+    /**
+     * Versión actual de una sesión del usuario (para ETag); null si no existe o no le pertenece
+     */
+    public VersionStampDto getSessionVersion(String sessionId, String userId, String agentType) {
+        return historyRepository.findSessionVersion(agentType, sessionId, userId).orElse(null);
     }
 
     /**
@@ -183,59 +364,220 @@ public class N8nSessionService {
     }
 
     /**
-     * Buscar sesiones por contenido
+     * Buscar sesiones por contenido (texto completo en español, sin acentos)
+     * Devuelve las sesiones más relevantes primero; el cursor codifica (rank, sessionId)
      */
-    @Transactional(readOnly = true)
-    public List<SessionDto> searchSessions(String userId, String agentType, String searchTerm) {
-        log.debug("Searching sessions for user: {} with term: {}", userId, searchTerm);
-
-        N8nChatHistoryBaseRepository<N8nChatHistoryBase> repository = getRepository(agentType);
-
-        List<N8nChatHistoryBase> messages = repository
-                .findMessagesByUserAndContentContaining(userId, searchTerm);
-
-        // Agrupar por sessionId y convertir a SessionDto
-        return messages.stream()
-                .collect(Collectors.groupingBy(N8nChatHistoryBase::getSessionId))
-                .entrySet().stream()
-                .map(entry -> {
-                    List<N8nChatHistoryBase> sessionMessages = entry.getValue();
-                    N8nChatHistoryBase firstUserMsg = sessionMessages.stream()
-                            .filter(N8nChatHistoryBase::isUserMessage)
-                            .findFirst()
-                            .orElse(sessionMessages.get(0));
-
-                    return SessionDto.builder()
-                            .sessionId(entry.getKey())
-                            .userId(userId)
-                            .agentType(agentType)
-                            .sessionName(generateSessionName(firstUserMsg.getContent()))
-                            .createdAt(null) // No tenemos timestamp
-                            .updatedAt(null)
-                            .messageCount(sessionMessages.size())
-                            .isActive(true)
-                            .build();
-                })
+    public CursorPageDto<SessionDto> searchSessions(String userId, String agentType, String searchTerm,
+                                                    Integer limit, String after) {
+        if (searchTerm == null || searchTerm.isBlank()) {
+            throw new IllegalArgumentException("Search query must not be empty");
+        }
+        int pageSize = limit != null ? Math.max(1, Math.min(limit, MAX_SESSION_PAGE_SIZE)) : DEFAULT_SESSION_PAGE_SIZE;
+
+        // Con app.search.engine=lucene la búsqueda no se ejecuta en Postgres
+        LuceneSearchService index = luceneSearchService.getIfAvailable();
+        if (index != null) {
+            return searchSessionsInIndex(index, userId, agentType, searchTerm, pageSize, after);
+        }
+
+        double afterRank = Double.MAX_VALUE;
+        String afterSessionId = "";
+        if (after != null) {
+            String decoded = CursorCodec.decode(after);
+            int separator = decoded.indexOf('|');
+            try {
+                afterRank = Float.parseFloat(decoded.substring(0, separator));
+                afterSessionId = decoded.substring(separator + 1);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + after);
+            }
+        }
+        log.debug("Searching sessions for user: {} with term: {} (limit: {})", userId, searchTerm, pageSize);
+
+        // Se pide una fila extra para saber si hay una página siguiente
+        List<N8nSessionSummaryRow> hits = historyRepository.searchSessionsByContent(
+                userId, agentType, searchTerm, afterRank, afterSessionId, pageSize + 1);
+
+        String nextCursor = null;
+        if (hits.size() > pageSize) {
+            hits = hits.subList(0, pageSize);
+            N8nSessionSummaryRow last = hits.get(pageSize - 1);
+            // El rank es real (float4): Float.toString conserva el valor exacto para la comparación
+            nextCursor = CursorCodec.encode(last.rank() + "|" + last.sessionId());
+        }
+
+        List<SessionDto> sessions = hits.stream()
+                .map(this::convertSummaryToSessionDto)
                 .collect(Collectors.toList());
+
+        return CursorPageDto.<SessionDto>builder()
+                .items(sessions)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    /**
+     * Búsqueda en todos los agentes: una consulta por tabla en paralelo, con un plazo común,
+     * y mezcla de los mejores resultados por relevancia. Un agente que no responde a tiempo
+     * o falla se omite; el resto de resultados se devuelve igual.
+     */
+    public List<SessionDto> searchAllAgents(String userId, String searchTerm, Integer limit) {
+        if (searchTerm == null || searchTerm.isBlank()) {
+            throw new IllegalArgumentException("Search query must not be empty");
+        }
+        int pageSize = limit != null ? Math.max(1, Math.min(limit, MAX_SESSION_PAGE_SIZE)) : DEFAULT_SESSION_PAGE_SIZE;
+        log.debug("Searching all agents for user: {} with term: {} (limit: {})", userId, searchTerm, pageSize);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(searchTimeoutMs);
+        Map<String, CompletableFuture<List<ScoredSession>>> searches = new LinkedHashMap<>();
+        for (String agentType : agentRegistry.ids()) {
+            searches.put(agentType, CompletableFuture.supplyAsync(
+                    () -> searchAgent(userId, agentType, searchTerm, pageSize), searchExecutor));
+        }
+
+        // Montículo de mínimos acotado a pageSize: se queda con los K mejores de todas las tablas
+        Comparator<ScoredSession> byScore = Comparator.comparingDouble(ScoredSession::score);
+        PriorityQueue<ScoredSession> top = new PriorityQueue<>(pageSize + 1, byScore);
+        for (Map.Entry<String, CompletableFuture<List<ScoredSession>>> search : searches.entrySet()) {
+            try {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                for (ScoredSession result : search.getValue().get(remaining, TimeUnit.NANOSECONDS)) {
+                    top.offer(result);
+                    if (top.size() > pageSize) {
+                        top.poll();
+                    }
+                }
+            } catch (TimeoutException e) {
+                search.getValue().cancel(true);
+                log.warn("Search in agent {} timed out after {} ms, skipping", search.getKey(), searchTimeoutMs);
+            } catch (ExecutionException e) {
+                log.error("Search in agent {} failed, skipping", search.getKey(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Search interrupted", e);
+            }
+        }
+
+        List<ScoredSession> merged = new ArrayList<>(top);
+        merged.sort(byScore.reversed());
+        return merged.stream().map(ScoredSession::session).collect(Collectors.toList());
+    }
+
+    // Mejores sesiones de un agente con su puntuación, según el motor configurado
+    private List<ScoredSession> searchAgent(String userId, String agentType, String searchTerm, int limit) {
+        LuceneSearchService index = luceneSearchService.getIfAvailable();
+        if (index != null) {
+            List<SearchHitDto> hits = index.search(userId, agentType, searchTerm, 0, limit);
+            Map<String, Float> scores = hits.stream()
+                    .collect(Collectors.toMap(SearchHitDto::getSessionId, SearchHitDto::getScore));
+            return toSearchResults(userId, agentType, hits)
+                    .stream()
+                    .map(session -> new ScoredSession(session, scores.get(session.getSessionId())))
+                    .collect(Collectors.toList());
+        }
+
+        return historyRepository
+                .searchSessionsByContent(userId, agentType, searchTerm, Double.MAX_VALUE, "", limit)
+                .stream()
+                .map(hit -> new ScoredSession(convertSummaryToSessionDto(hit), hit.rank()))
+                .collect(Collectors.toList());
+    }
+
+    private record ScoredSession(SessionDto session, float score) {
+    }
+
+    /**
+     * Búsqueda en el índice Lucene; el cursor es el número de sesiones ya devueltas.
+     * Solo se consulta Postgres por clave primaria para completar los datos de cada sesión.
+     */
+    private CursorPageDto<SessionDto> searchSessionsInIndex(LuceneSearchService index, String userId, String agentType,
+                                                            String searchTerm, int pageSize, String after) {
+        int offset = after != null ? (int) CursorCodec.decodeLong(after) : 0;
+
+        // Se pide un resultado extra para saber si hay una página siguiente
+        List<SearchHitDto> hits = index.search(userId, agentType, searchTerm, offset, pageSize + 1);
+        String nextCursor = null;
+        if (hits.size() > pageSize) {
+            hits = hits.subList(0, pageSize);
+            nextCursor = CursorCodec.encodeLong(offset + pageSize);
+        }
+
+        List<SessionDto> sessions = toSearchResults(userId, agentType, hits);
+
+        return CursorPageDto.<SessionDto>builder()
+                .items(sessions)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    /**
+     * Búsqueda semántica: sesiones con los mensajes más parecidos a la consulta (top-K, sin cursor)
+     */
+    public List<SessionDto> searchSessionsSemantic(String userId, String agentType, String searchTerm, Integer limit) {
+        if (searchTerm == null || searchTerm.isBlank()) {
+            throw new IllegalArgumentException("Search query must not be empty");
+        }
+        SemanticSearchService semantic = semanticSearchService.getIfAvailable();
+        if (semantic == null) {
+            throw new RuntimeException("Semantic search is disabled");
+        }
+        int pageSize = limit != null ? Math.max(1, Math.min(limit, MAX_SESSION_PAGE_SIZE)) : DEFAULT_SESSION_PAGE_SIZE;
+        log.debug("Semantic search for user: {} with term: {} (limit: {})", userId, searchTerm, pageSize);
+
+        List<SearchHitDto> hits = semantic.search(userId, agentType, searchTerm, pageSize);
+        return toSearchResults(userId, agentType, hits);
+    }
+
+    /**
+     * Completa los resultados de un motor de búsqueda con los resúmenes de sesión, en el mismo orden.
+     * Las sesiones sin resumen del usuario se descartan sin tocar el índice: la búsqueda por
+     * usuario no prueba que la sesión no exista; los borrados llegan por la notificación DELETE.
+     */
+    private List<SessionDto> toSearchResults(String userId, String agentType, List<SearchHitDto> hits) {
+        if (hits.isEmpty()) {
+            return List.of();
+        }
+
+        Map<String, N8nSessionSummaryRow> summaries = historyRepository
+                .findSessionSummariesBySessionIds(agentType, userId, hits.stream().map(SearchHitDto::getSessionId).toList())
+                .stream()
+                .collect(Collectors.toMap(N8nSessionSummaryRow::sessionId, Function.identity()));
+
+        List<SessionDto> sessions = new ArrayList<>(hits.size());
+        for (SearchHitDto hit : hits) {
+            N8nSessionSummaryRow summary = summaries.get(hit.getSessionId());
+            if (summary == null) {
+                continue;
+            }
+            SessionDto session = convertSummaryToSessionDto(summary);
+            session.setSnippet(hit.getSnippet());
+            sessions.add(session);
+        }
+        return sessions;
     }
 
     /**
      * Eliminar una sesión y todos sus mensajes
      */
     @Transactional
-    public void deleteSession(String sessionId, String userId, String agentType) {
+    public int deleteSession(String sessionId, String userId, String agentType) {
         log.info("Deleting session: {} for user: {} with agent: {}", sessionId, userId, agentType);
 
-        N8nChatHistoryBaseRepository<N8nChatHistoryBase> repository = getRepository(agentType);
-
-        // Verificar que la sesión pertenece al usuario
-        if (!repository.existsBySessionIdAndUserId(sessionId, userId)) {
+        // Un único DELETE filtrado por usuario: 0 filas significa sesión inexistente o ajena
+        int deleted = historyRepository.deleteBySessionIdAndUserId(agentType, sessionId, userId);
+        if (deleted == 0) {
             throw new RuntimeException("Session not found or access denied: " + sessionId);
         }
 
-        // Eliminar todos los mensajes usando el método del repositorio
-        repository.deleteBySessionId(sessionId);
-        log.info("Deleted all messages from session: {}", sessionId);
+        // La notificación del DELETE invalida las demás instancias; aquí se invalida tras el commit sin esperarla
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                sessionListCache.invalidate(userId, agentType);
+            }
+        });
+        log.info("Deleted {} messages from session: {}", deleted, sessionId);
+        return deleted;
     }
 
     // Métodos de utilidad privados
@@ -248,7 +590,7 @@ public class N8nSessionService {
                 UUID.randomUUID().toString().substring(0, 8));
     }
 
-    private String generateSessionName(String firstMessage) {
+    static String generateSessionName(String firstMessage) {
         if (firstMessage == null || firstMessage.trim().isEmpty()) {
             return "Nueva conversación";
         }
@@ -269,47 +611,25 @@ public class N8nSessionService {
         return result.length() > 50 ? result.substring(0, 47) + "..." : result;
     }
 
-    private SessionDto convertSummaryToSessionDto(Object[] summary, String agentType) {
-        String sessionId = (String) summary[0];
-        // summary[1] y [2] son IDs
-        Long messageCount = ((Number) summary[3]).longValue();
-        // summary[4] y [5] son las fechas createdAt y updatedAt
-        java.sql.Timestamp createdAtTimestamp = (java.sql.Timestamp) summary[4];
-        java.sql.Timestamp updatedAtTimestamp = (java.sql.Timestamp) summary[5];
-
-        N8nChatHistoryBaseRepository<N8nChatHistoryBase> repository = getRepository(agentType);
-
-        // Obtener primer mensaje de usuario para generar el nombre
-        N8nChatHistoryBase firstUserMessage = repository.findFirstUserMessageBySessionId(sessionId);
-        String sessionName = firstUserMessage != null ?
-                generateSessionName(firstUserMessage.getContent()) : "Conversación";
-
-        // Extraer userId del sessionId
-        String userId = sessionId.split("_")[0];
+    private SessionDto convertSummaryToSessionDto(N8nSessionSummaryRow summary) {
+        // El título es el contenido del primer mensaje de usuario
+        String sessionName = summary.title() != null ?
+                generateSessionName(summary.title()) : "Conversación";
 
         return SessionDto.builder()
-                .sessionId(sessionId)
-                .userId(userId)
-                .agentType(agentType)
+                .sessionId(summary.sessionId())
+                .userId(summary.userId())
+                .agentType(summary.agentType())
                 .sessionName(sessionName)
-                .createdAt(createdAtTimestamp != null ? createdAtTimestamp.toLocalDateTime() : null)
-                .updatedAt(updatedAtTimestamp != null ? updatedAtTimestamp.toLocalDateTime() : null)
-                .messageCount(messageCount.intValue())
+                .createdAt(summary.createdAt())
+                .updatedAt(summary.updatedAt())
+                .messageCount((int) summary.messageCount())
                 .isActive(true)
                 .build();
     }
 
-    private MessageDto convertHistoryToMessageDto(N8nChatHistoryBase history) {
-        return MessageDto.builder()
-                .id(history.getId())
-                .sessionId(history.getSessionId())
-                .content(history.getContent()) // Parsea el JSONB y extrae content
-                .isUser(history.isUserMessage()) // Verifica type = 'human'
-                .createdAt(null) // No tenemos timestamp
-                .agentResponse(history.isAiMessage() ? history.getContent() : null)
-                .processingTimeMs(null)
-                .errorMessage(null)
-                .metadata(null)
-                .build();
+    private MessageDto convertRowToMessageDto(N8nMessageRow row) {
+        // Un único parseo del JSONB por mensaje
+        return MessageDto.fromN8nMessage(row.id(), row.sessionId(), row.message(), row.createdAt());
     }
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+package com.ialegal.backend.service;
+
+import com.ialegal.backend.dto.MessageDto;
+import com.ialegal.backend.dto.SessionDto;
+import com.ialegal.backend.repository.N8nMessageRow;
+import com.ialegal.backend.repository.N8nSessionSummaryRow;
+import com.ialegal.backend.repository.ReactiveN8nHistoryRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+/**
+ * Lectura reactiva de sesiones y mensajes de N8N sobre R2DBC.
+ * Cada resultado se convierte a DTO a medida que llega la fila, sin armar listas intermedias.
+ * Los mensajes se paginan igual que en N8nSessionService (por id, siempre ascendentes);
+ * el id del primer o último mensaje recibido es el cursor de la página siguiente.
+ * Se activa con app.history.read-stack=reactive.
+ */
+@Service
+@ConditionalOnProperty(name = "app.history.read-stack", havingValue = "reactive")
+@RequiredArgsConstructor
+@Slf4j
+public class ReactiveSessionService {
+
+    private static final int DEFAULT_SESSION_PAGE_SIZE = 20;
+    private static final int MAX_SESSION_PAGE_SIZE = 100;
+    private static final int DEFAULT_MESSAGE_PAGE_SIZE = 50;
+    private static final int MAX_MESSAGE_PAGE_SIZE = 200;
+
+    private final ReactiveN8nHistoryRepository historyRepository;
+
+    /**
+     * Sesiones del usuario por agente, por última actividad; sin limit devuelve todas
+     */
+    public Flux<SessionDto> getUserSessionsByAgent(String userId, String agentType, Integer limit, Long beforeLastMessageId) {
+        int pageSize = limit != null ? Math.max(1, Math.min(limit, MAX_SESSION_PAGE_SIZE)) : Integer.MAX_VALUE;
+        log.debug("Streaming sessions for user: {} and agent: {} (limit: {})", userId, agentType, limit);
+
+        return historyRepository.findSessionSummariesPage(userId, agentType,
+                        beforeLastMessageId != null ? beforeLastMessageId : Long.MAX_VALUE, pageSize)
+                .map(summary -> toSessionDto(summary, agentType));
+    }
+
+    /**
+     * Mensajes de una sesión del usuario, en orden ascendente.
+     * Sin cursores devuelve los últimos; una sesión ajena o inexistente da un flujo vacío.
+     */
+    public Flux<MessageDto> getSessionMessages(String sessionId, String userId, String agentType,
+                                               Integer limit, Long beforeId, Long afterId) {
+        if (beforeId != null && afterId != null) {
+            return Flux.error(new IllegalArgumentException("Use either 'before' or 'after', not both"));
+        }
+        int pageSize = limit != null ? Math.max(1, Math.min(limit, MAX_MESSAGE_PAGE_SIZE)) : DEFAULT_MESSAGE_PAGE_SIZE;
+        log.debug("Streaming messages for session: {} (limit: {}, before: {}, after: {})", sessionId, pageSize, beforeId, afterId);
+
+        Flux<N8nMessageRow> messages;
+        if (afterId != null) {
+            messages = historyRepository.findBySessionIdAndUserIdAfterId(agentType, sessionId, userId, afterId, pageSize);
+        } else if (beforeId != null) {
+            messages = historyRepository.findBySessionIdAndUserIdBeforeId(agentType, sessionId, userId, beforeId, pageSize);
+        } else {
+            messages = historyRepository.findLatestBySessionIdAndUserId(agentType, sessionId, userId, pageSize);
+        }
+        return messages.map(row -> MessageDto.fromN8nMessage(row.id(), row.sessionId(), row.message(), row.createdAt()));
+    }
+
+    /**
+     * Mejores sesiones del usuario para la búsqueda de texto completo (top-K, sin cursor)
+     */
+    public Flux<SessionDto> searchSessions(String userId, String agentType, String searchTerm, Integer limit) {
+        if (searchTerm == null || searchTerm.isBlank()) {
+            return Flux.error(new IllegalArgumentException("Search query must not be empty"));
+        }
+        int pageSize = limit != null ? Math.max(1, Math.min(limit, MAX_SESSION_PAGE_SIZE)) : DEFAULT_SESSION_PAGE_SIZE;
+        log.debug("Streaming search for user: {} with term: {} (limit: {})", userId, searchTerm, pageSize);
+
+        return historyRepository.searchSessionsByContent(userId, agentType, searchTerm, pageSize)
+                .map(hit -> toSessionDto(hit, agentType));
+    }
+
+    private SessionDto toSessionDto(N8nSessionSummaryRow summary, String agentType) {
+        String sessionName = summary.title() != null ?
+                N8nSessionService.generateSessionName(summary.title()) : "Conversación";
+
+        return SessionDto.builder()
+                .sessionId(summary.sessionId())
+                .userId(summary.userId())
+                .agentType(agentType)
+                .sessionName(sessionName)
+                .createdAt(summary.createdAt())
+                .updatedAt(summary.updatedAt())
+                .messageCount((int) summary.messageCount())
+                .isActive(true)
+                .build();
+    }
+}
@@ -0,0 +1,317 @@
+package com.ialegal.backend.service;
+
+import com.ialegal.backend.config.AgentRegistry;
+import com.ialegal.backend.dto.SearchHitDto;
+import com.ialegal.backend.event.N8nHistoryChangedEvent;
+import com.ialegal.backend.event.N8nHistoryResyncEvent;
+import com.ialegal.backend.repository.N8nHistoryRepository;
+import com.ialegal.backend.repository.N8nHistoryTail;
+import com.ialegal.backend.repository.N8nMessageRow;
+import com.pgvector.PGvector;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Búsqueda semántica sobre el historial de N8N con pgvector.
+ * Un proceso periódico calcula por lotes los embeddings de los mensajes nuevos de cada
+ * agente (por id creciente con N8nHistoryTail, con watermark en n8n_embedding_watermarks) y la búsqueda
+ * devuelve las sesiones del usuario con los mensajes más cercanos a la consulta.
+ * Para usuarios con pocos embeddings la búsqueda es exacta sobre el índice (user_id, agent_type);
+ * para el resto recorre el índice HNSW, con iterative_scan si pgvector lo soporta (0.8+) para que
+ * el filtro por usuario no se quede sin candidatos. Solo se insertan embeddings de sesiones que
+ * siguen en n8n_session_summaries, y tras perder notificaciones (N8nHistoryResyncEvent) la
+ * siguiente pasada borra los de sesiones que ya no están. Se activa con app.semantic.enabled=true
+ * y requiere la migración V5 con pgvector.
+ */
+@Service
+@ConditionalOnProperty(name = "app.semantic.enabled", havingValue = "true")
+@RequiredArgsConstructor
+@Slf4j
+public class SemanticSearchService {
+
+    // Solo si la sesión sigue existiendo: un lote leído antes de un DELETE no la resucita.
+    // FOR KEY SHARE espera a un borrado en curso del resumen en lugar de adelantarse a él
+    private static final String INSERT_EMBEDDING =
+            "INSERT INTO n8n_message_embeddings (agent_type, message_id, session_id, user_id, embedding) " +
+            "SELECT ?, ?, ?, ialegal_session_user_id(?, ?), ? " +
+            "WHERE EXISTS (SELECT 1 FROM n8n_session_summaries s " +
+            "WHERE s.agent_type = ? AND s.session_id = ? FOR KEY SHARE) " +
+            "ON CONFLICT (agent_type, message_id) DO NOTHING";
+
+    // Embeddings de sesiones borradas mientras no llegaban notificaciones
+    private static final String DELETE_ORPHAN_EMBEDDINGS =
+            "DELETE FROM n8n_message_embeddings e " +
+            "WHERE NOT EXISTS (SELECT 1 FROM n8n_session_summaries s " +
+            "WHERE s.agent_type = e.agent_type AND s.session_id = e.session_id)";
+
+    private static final String UPSERT_WATERMARK =
+            "INSERT INTO n8n_embedding_watermarks (agent_type, last_message_id) VALUES (?, ?) " +
+            "ON CONFLICT (agent_type) DO UPDATE SET last_message_id = EXCLUDED.last_message_id";
+
+    // Embeddings del usuario en el agente, contados hasta el umbral de la búsqueda exacta
+    private static final String OWNED_EMBEDDINGS =
+            "SELECT COUNT(*) FROM (" +
+            "SELECT 1 FROM n8n_message_embeddings " +
+            "WHERE user_id = ? AND agent_type = ? " +
+            "LIMIT ?) owned";
+
+    // Distancia exacta de todos los mensajes del usuario: sin ORDER BY sobre <=> no se usa el HNSW
+    private static final String EXACT_NEAREST_SESSIONS =
+            "SELECT session_id, MIN(embedding <=> ?) AS distance " +
+            "FROM n8n_message_embeddings " +
+            "WHERE user_id = ? AND agent_type = ? " +
+            "GROUP BY session_id " +
+            "ORDER BY distance " +
+            "LIMIT ?";
+
+    // Vecinos más cercanos del usuario por el índice HNSW, agrupados por sesión (distancia coseno del mejor mensaje)
+    private static final String NEAREST_SESSIONS =
+            "SELECT hits.session_id, MIN(hits.distance) AS distance FROM (" +
+            "SELECT session_id, embedding <=> ? AS distance " +
+            "FROM n8n_message_embeddings " +
+            "WHERE user_id = ? AND agent_type = ? " +
+            "ORDER BY embedding <=> ? " +
+            "LIMIT ?) hits " +
+            "GROUP BY hits.session_id " +
+            "ORDER BY distance " +
+            "LIMIT ?";
+
+    private final AgentRegistry agentRegistry;
+    private final N8nHistoryRepository historyRepository;
+    private final TextEmbedder embedder;
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${app.semantic.batch-size:500}")
+    private int batchSize;
+
+    // Lotes por agente en cada pasada: la carga inicial avanza varios lotes sin ocupar el scheduler compartido
+    @Value("${app.semantic.max-batches-per-run:20}")
+    private int maxBatchesPerRun;
+
+    // Hasta este número de embeddings del usuario se calcula la distancia de todos
+    @Value("${app.semantic.exact-scan-max-rows:20000}")
+    private int exactScanMaxRows;
+
+    // Mensajes candidatos por cada sesión pedida: varias coincidencias suelen caer en la misma sesión
+    @Value("${app.semantic.candidates-per-session:5}")
+    private int candidatesPerSession;
+
+    @Value("${app.semantic.ef-search:100}")
+    private int efSearch;
+
+    @Value("${app.history.tail.safety-lag-ms:1000}")
+    private long safetyLagMs;
+
+    private TransactionTemplate transactionTemplate;
+    private TransactionTemplate readOnlyTransactionTemplate;
+    private volatile boolean available;
+    private boolean iterativeScan;
+    private N8nHistoryTail historyTail;
+    private final AtomicBoolean resyncRequested = new AtomicBoolean();
+
+    @PostConstruct
+    void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTransactionTemplate.setReadOnly(true);
+        historyTail = new N8nHistoryTail(historyRepository, Duration.ofMillis(safetyLagMs));
+
+        available = Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT to_regclass('n8n_message_embeddings') IS NOT NULL", Boolean.class));
+        if (!available) {
+            log.warn("Semantic search enabled but n8n_message_embeddings does not exist (pgvector missing?)");
+            return;
+        }
+
+        Integer columnDimensions = jdbcTemplate.queryForObject(
+                "SELECT atttypmod FROM pg_attribute " +
+                "WHERE attrelid = 'n8n_message_embeddings'::regclass AND attname = 'embedding'", Integer.class);
+        if (columnDimensions == null || columnDimensions != embedder.dimensions()) {
+            log.error("Embedder produces {} dimensions but n8n_message_embeddings.embedding has {}, semantic search disabled",
+                    embedder.dimensions(), columnDimensions);
+            available = false;
+            return;
+        }
+
+        // hnsw.iterative_scan existe desde pgvector 0.8; antes el parámetro no se puede fijar
+        String version = jdbcTemplate.queryForObject(
+                "SELECT extversion FROM pg_extension WHERE extname = 'vector'", String.class);
+        iterativeScan = supportsIterativeScan(version);
+        if (!iterativeScan) {
+            log.warn("pgvector {} has no hnsw.iterative_scan: searches over large owners may return fewer sessions", version);
+        }
+    }
+
+    /**
+     * Procesa hasta max-batches-per-run lotes por agente en cada pasada; los lotes son
+     * acotados para no ocupar el scheduler compartido.
+     */
+    @Scheduled(fixedDelayString = "${app.semantic.interval-ms:10000}")
+    public void embedNewMessages() {
+        if (!available) {
+            return;
+        }
+        if (resyncRequested.getAndSet(false)) {
+            try {
+                int deleted = jdbcTemplate.update(DELETE_ORPHAN_EMBEDDINGS);
+                if (deleted > 0) {
+                    log.info("Removed {} embeddings of sessions deleted while notifications were down", deleted);
+                }
+            } catch (Exception e) {
+                resyncRequested.set(true);
+                log.error("Error reconciling message embeddings", e);
+            }
+        }
+        for (String agentType : agentRegistry.ids()) {
+            try {
+                int read = 0;
+                for (int i = 0; i < maxBatchesPerRun; i++) {
+                    int batch = embedBatch(agentType);
+                    read += batch;
+                    if (batch < batchSize) {
+                        break;
+                    }
+                }
+                if (read > 0) {
+                    log.debug("Embedded up to {} messages for agent {}", read, agentType);
+                }
+            } catch (Exception e) {
+                log.error("Error embedding messages for agent {}", agentType, e);
+            }
+        }
+    }
+
+    // Devuelve las filas leídas (no las insertadas): un lote incompleto indica que no hay más
+    private int embedBatch(String agentType) {
+        List<Long> watermark = jdbcTemplate.queryForList(
+                "SELECT last_message_id FROM n8n_embedding_watermarks WHERE agent_type = ?", Long.class, agentType);
+        long savedWatermark = watermark.isEmpty() ? 0L : watermark.get(0);
+
+        N8nHistoryTail.Batch tailBatch = historyTail.next(agentType, savedWatermark, batchSize);
+        List<N8nMessageRow> rows = tailBatch.rows();
+        if (rows.isEmpty()) {
+            if (tailBatch.watermark() > savedWatermark) {
+                jdbcTemplate.update(UPSERT_WATERMARK, agentType, tailBatch.watermark());
+            }
+            historyTail.commit(tailBatch);
+            return 0;
+        }
+
+        // Los vectores se calculan fuera de la transacción; solo la escritura es transaccional
+        List<Object[]> batch = new ArrayList<>(rows.size());
+        for (N8nMessageRow row : rows) {
+            float[] vector = embedder.embed(row.content());
+            if (isZero(vector)) {
+                continue; // sin términos: no tiene vecinos con sentido
+            }
+            batch.add(new Object[]{agentType, row.id(), row.sessionId(), row.sessionId(), agentType,
+                    new PGvector(vector), agentType, row.sessionId()});
+        }
+
+        // Las filas releídas tras un reinicio ya tienen embedding: ON CONFLICT DO NOTHING
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!batch.isEmpty()) {
+                jdbcTemplate.batchUpdate(INSERT_EMBEDDING, batch);
+            }
+            jdbcTemplate.update(UPSERT_WATERMARK, agentType, tailBatch.watermark());
+        });
+        historyTail.commit(tailBatch);
+        return rows.size();
+    }
+
+    /**
+     * Sesiones del usuario más cercanas a la consulta, de mayor a menor similitud
+     */
+    public List<SearchHitDto> search(String userId, String agentType, String queryText, int limit) {
+        if (!available) {
+            throw new RuntimeException("Semantic search is not available");
+        }
+        float[] vector = embedder.embed(queryText);
+        if (isZero(vector)) {
+            return List.of();
+        }
+        PGvector queryVector = new PGvector(vector);
+
+        RowMapper<SearchHitDto> hitMapper = (rs, rowNum) -> SearchHitDto.builder()
+                .sessionId(rs.getString("session_id"))
+                .score(1f - rs.getFloat("distance"))
+                .build();
+
+        return readOnlyTransactionTemplate.execute(status -> {
+            Long owned = jdbcTemplate.queryForObject(OWNED_EMBEDDINGS, Long.class,
+                    userId, agentType, exactScanMaxRows + 1);
+            if (owned != null && owned <= exactScanMaxRows) {
+                return jdbcTemplate.query(EXACT_NEAREST_SESSIONS, hitMapper, queryVector, userId, agentType, limit);
+            }
+
+            // El filtro por usuario se aplica sobre lo que devuelve el HNSW: más candidatos por recorrido
+            // y, si se puede, recorrido iterativo hasta completar el LIMIT con filas del usuario
+            jdbcTemplate.queryForObject("SELECT set_config('hnsw.ef_search', ?, true)", String.class,
+                    String.valueOf(efSearch));
+            if (iterativeScan) {
+                jdbcTemplate.queryForObject("SELECT set_config('hnsw.iterative_scan', 'relaxed_order', true)",
+                        String.class);
+            }
+            return jdbcTemplate.query(NEAREST_SESSIONS, hitMapper,
+                    queryVector, userId, agentType, queryVector, limit * candidatesPerSession, limit);
+        });
+    }
+
+    @EventListener
+    public void onHistoryChanged(N8nHistoryChangedEvent event) {
+        if (available && event.getOperation() == N8nHistoryChangedEvent.Operation.DELETE) {
+            int deleted = jdbcTemplate.update(
+                    "DELETE FROM n8n_message_embeddings WHERE agent_type = ? AND session_id = ?",
+                    event.getAgentType(), event.getSessionId());
+            log.debug("Removed {} embeddings of session {}", deleted, event.getSessionId());
+        }
+    }
+
+    /**
+     * Las notificaciones DELETE perdidas no llegarán: la siguiente pasada concilia con
+     * n8n_session_summaries (no aquí, que es el hilo del LISTEN)
+     */
+    @EventListener
+    public void onResync(N8nHistoryResyncEvent event) {
+        resyncRequested.set(true);
+    }
+
+    static boolean supportsIterativeScan(String version) {
+        if (version == null) {
+            return false;
+        }
+        String[] parts = version.split("\\.");
+        try {
+            int major = Integer.parseInt(parts[0]);
+            int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return major > 0 || minor >= 8;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isZero(float[] vector) {
+        for (float value : vector) {
+            if (value != 0f) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
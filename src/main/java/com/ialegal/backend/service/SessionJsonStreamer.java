@@ -0,0 +1,110 @@
+package com.ialegal.backend.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.ialegal.backend.dto.MessageDto;
+import com.ialegal.backend.dto.SessionDto;
+import com.ialegal.backend.repository.N8nHistoryRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Respuestas de sesión y de mensajes escritas directamente desde un cursor JDBC.
+ * Las filas se leen en lotes de fetch-size con el cursor de N8nHistoryRepository (en Postgres
+ * requiere una transacción abierta) y cada una se convierte y se escribe con el
+ * JsonGenerator antes de leer la siguiente: la memoria por request no depende del largo
+ * de la sesión. La conexión queda tomada mientras dura la escritura al cliente.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SessionJsonStreamer {
+
+    private final N8nSessionService n8nSessionService;
+    private final N8nHistoryRepository historyRepository;
+    private final PlatformTransactionManager transactionManager;
+    private final ObjectMapper objectMapper;
+
+    private TransactionTemplate readOnlyTransactionTemplate;
+
+    // Sin flush por mensaje: el generador vuelca su buffer al stream cuando se llena
+    private ObjectWriter messageWriter;
+
+    @PostConstruct
+    void init() {
+        readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTransactionTemplate.setReadOnly(true);
+        messageWriter = objectMapper.writerFor(MessageDto.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Sesión completa con todos sus mensajes. La pertenencia se verifica antes de empezar
+     * a escribir, así que una sesión ajena sigue respondiendo con error y no con un JSON a medias.
+     */
+    public StreamingResponseBody streamSession(String sessionId, String userId, String agentType) {
+        SessionDto session = n8nSessionService.getSessionHeader(sessionId, userId, agentType);
+
+        return outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartObject();
+                generator.writeStringField("sessionId", session.getSessionId());
+                generator.writeStringField("userId", session.getUserId());
+                generator.writeStringField("agentType", session.getAgentType());
+                generator.writeStringField("sessionName", session.getSessionName());
+                generator.writeObjectField("createdAt", session.getCreatedAt());
+                generator.writeObjectField("updatedAt", session.getUpdatedAt());
+                generator.writeNumberField("messageCount", session.getMessageCount());
+                generator.writeBooleanField("isActive", session.getIsActive());
+                generator.writeFieldName("messages");
+                writeMessages(generator, sessionId, userId, agentType, 0L);
+                generator.writeEndObject();
+            }
+        };
+    }
+
+    /**
+     * Todos los mensajes de la sesión del usuario con id mayor que afterId, como array JSON.
+     * Igual que la paginación normal, una sesión ajena o inexistente da un array vacío.
+     */
+    public StreamingResponseBody streamSessionMessages(String sessionId, String userId, String agentType, Long afterId) {
+        // Un agente desconocido se rechaza antes de empezar a escribir la respuesta
+        historyRepository.statements(agentType);
+        return outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                writeMessages(generator, sessionId, userId, agentType, afterId != null ? afterId : 0L);
+            }
+        };
+    }
+
+    private void writeMessages(JsonGenerator generator, String sessionId, String userId, String agentType,
+                               long afterId) throws IOException {
+        generator.writeStartArray();
+        try {
+            Long written = readOnlyTransactionTemplate.execute(status -> historyRepository.streamBySessionIdAndUserIdAfterId(
+                    agentType, sessionId, userId, afterId, row -> {
+                        try {
+                            messageWriter.writeValue(generator, MessageDto.fromN8nMessage(row.id(), row.sessionId(), row.message(),
+                                    row.createdAt()));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+            log.debug("Streamed {} messages of session: {}", written, sessionId);
+        } catch (UncheckedIOException e) {
+            // El cliente cortó la conexión: se corta la lectura y se libera el cursor
+            throw e.getCause();
+        }
+        generator.writeEndArray();
+    }
+}
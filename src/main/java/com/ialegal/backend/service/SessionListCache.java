@@ -0,0 +1,119 @@
+package com.ialegal.backend.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ialegal.backend.event.N8nHistoryChangedEvent;
+import com.ialegal.backend.event.N8nHistoryResyncEvent;
+import com.ialegal.backend.util.SessionIds;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Caché en memoria de los listados de sesiones por (userId, agentType): listado completo,
+ * páginas y sello de versión. Cada entrada es el mapa de variantes de un usuario y agente,
+ * así que invalidarlos es quitar una sola clave. Se invalida cuando llega una notificación
+ * de la tabla de historial; como cada instancia escucha el mismo canal de Postgres, la
+ * invalidación alcanza a todas. Al (re)conectar el listener se vacía entera, porque las
+ * notificaciones de mientras estuvo caído se perdieron; el TTL acota lo que puede quedar
+ * desactualizado si las notificaciones están deshabilitadas.
+ */
+@Component
+@Slf4j
+public class SessionListCache {
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    // maximum-size cuenta pares (userId, agentType), no variantes
+    private final Cache<Owner, Map<Object, Object>> cache;
+
+    // Contador de invalidaciones por franja de (userId, agentType)
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final Counter variantHits;
+    private final Counter variantMisses;
+
+    public SessionListCache(MeterRegistry meterRegistry,
+                            @Value("${app.cache.session-lists.max-size:10000}") long maxSize,
+                            @Value("${app.cache.session-lists.ttl-ms:600000}") long ttlMs) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .recordStats()
+                .build();
+        // Métricas cache.gets{result=hit|miss}, cache.evictions, cache.size con cache=session-lists (por par)
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "session-lists");
+        // Aciertos y fallos por variante, que es lo que ahorra consultas
+        this.variantHits = Counter.builder("cache.variant.gets")
+                .tag("cache", "session-lists").tag("result", "hit").register(meterRegistry);
+        this.variantMisses = Counter.builder("cache.variant.gets")
+                .tag("cache", "session-lists").tag("result", "miss").register(meterRegistry);
+    }
+
+    /**
+     * Valor en caché de una variante del listado (completo, una página, la versión);
+     * si no está, se carga con loader y se guarda
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String userId, String agentType, Object variant, Supplier<T> loader) {
+        int stripe = stripe(userId, agentType);
+        long generation = generations.get(stripe);
+        Map<Object, Object> variants = cache.get(new Owner(userId, agentType), ignored -> new ConcurrentHashMap<>());
+        Object cached = variants.get(variant);
+        if (cached != null) {
+            variantHits.increment();
+            return (T) cached;
+        }
+        variantMisses.increment();
+        T value = (T) variants.computeIfAbsent(variant, ignored -> loader.get());
+        // Una carga en curso no es visible para invalidate(): si hubo una invalidación
+        // mientras se cargaba, el valor se devuelve pero no se conserva
+        if (generations.get(stripe) != generation) {
+            variants.remove(variant, value);
+        }
+        return value;
+    }
+
+    public void invalidate(String userId, String agentType) {
+        generations.incrementAndGet(stripe(userId, agentType));
+        cache.invalidate(new Owner(userId, agentType));
+    }
+
+    public void invalidateAll() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        cache.invalidateAll();
+    }
+
+    @EventListener
+    public void onHistoryChanged(N8nHistoryChangedEvent event) {
+        String userId = SessionIds.userIdOf(event.getSessionId(), event.getAgentType());
+        invalidate(userId, event.getAgentType());
+        log.debug("Invalidated session list cache for user: {} and agent: {}", userId, event.getAgentType());
+    }
+
+    @EventListener
+    public void onResync(N8nHistoryResyncEvent event) {
+        invalidateAll();
+        log.debug("Invalidated the whole session list cache after (re)connecting to history notifications");
+    }
+
+    private static int stripe(String userId, String agentType) {
+        return Math.floorMod(Objects.hash(userId, agentType), GENERATION_STRIPES);
+    }
+
+    private record Owner(String userId, String agentType) {
+    }
+}
@@ -130,17 +130,15 @@ public class SessionService {
     public MessageDto addMessage(String sessionId, String userId, AddMessageRequest request) {
         log.debug("Adding message to session: {} for user: {}", sessionId, userId);
 
-        ChatSession session = sessionRepository.findById(sessionId)
-                .orElseThrow(() -> new RuntimeException("Session not found: " + sessionId));
-
-        // Verificar que la sesión pertenece al usuario
-        if (!session.getUserId().equals(userId)) {
-            throw new RuntimeException("Access denied to session: " + sessionId);
-        }
+        // Un único UPDATE verifica la pertenencia, suma el contador y da el orden del mensaje;
+        // no se carga la sesión ni su colección de mensajes
+        int messageOrder = sessionRepository.incrementMessageCount(sessionId, userId)
+                .orElseThrow(() -> new RuntimeException("Session not found or access denied: " + sessionId));
 
         // Crear mensaje
         ChatMessage message = ChatMessage.builder()
-                .session(session)
+                .session(sessionRepository.getReferenceById(sessionId))
+                .messageOrder(messageOrder)
                 .content(request.getContent())
                 .isUser(request.getIsUser())
                 .agentResponse(request.getAgentResponse())
@@ -149,14 +147,9 @@ public class SessionService {
                 .metadata(request.getMetadata())
                 .build();
 
-        // Actualizar sesión
-        session.addMessage(message);
-        session.setUpdatedAt(LocalDateTime.now());
-
         ChatMessage savedMessage = messageRepository.save(message);
-        sessionRepository.save(session);
 
-        log.info("Added message to session: {}, total messages: {}", sessionId, session.getMessageCount());
+        log.info("Added message to session: {}, total messages: {}", sessionId, messageOrder);
         return MessageDto.fromEntity(savedMessage);
     }
 
@@ -181,19 +174,19 @@ public class SessionService {
     /**
      * Eliminar una sesión
      */
-    public void deleteSession(String sessionId, String userId) {
+    public int deleteSession(String sessionId, String userId) {
         log.info("Deleting session: {} for user: {}", sessionId, userId);
 
-        ChatSession session = sessionRepository.findById(sessionId)
-                .orElseThrow(() -> new RuntimeException("Session not found: " + sessionId));
-
-        // Verificar que la sesión pertenece al usuario
-        if (!session.getUserId().equals(userId)) {
-            throw new RuntimeException("Access denied to session: " + sessionId);
+        // Verificar que la sesión pertenece al usuario sin cargarla
+        if (!sessionRepository.existsBySessionIdAndUserId(sessionId, userId)) {
+            throw new RuntimeException("Session not found or access denied: " + sessionId);
         }
 
-        sessionRepository.delete(session);
-        log.info("Deleted session: {}", sessionId);
+        // Borrado masivo: no se carga la colección de mensajes ni se borra fila por fila
+        int deletedMessages = messageRepository.deleteBySessionId(sessionId);
+        sessionRepository.deleteBySessionIdAndUserId(sessionId, userId);
+        log.info("Deleted session: {} with {} messages", sessionId, deletedMessages);
+        return deletedMessages;
     }
 
     /**
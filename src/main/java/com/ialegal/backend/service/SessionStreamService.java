@@ -0,0 +1,169 @@
+package com.ialegal.backend.service;
+
+import com.ialegal.backend.config.AgentRegistry;
+import com.ialegal.backend.dto.CursorPageDto;
+import com.ialegal.backend.dto.MessageDto;
+import com.ialegal.backend.event.N8nHistoryChangedEvent;
+import com.ialegal.backend.event.N8nHistoryResyncEvent;
+import com.ialegal.backend.util.SessionIds;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Push de mensajes nuevos por Server-Sent Events.
+ * Los suscriptores se agrupan por sesión en memoria; cada notificación de la base
+ * se resuelve con una sola lectura y se reparte a todos los suscriptores de esa sesión.
+ * El id de cada evento es el id del mensaje: al reconectar, EventSource lo manda en
+ * Last-Event-ID y se reenvía lo posterior. Tras perder notificaciones (N8nHistoryResyncEvent)
+ * se cierran los streams para que los clientes reconecten y se pongan al día así.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SessionStreamService {
+
+    private final N8nSessionService n8nSessionService;
+    private final AgentRegistry agentRegistry;
+
+    @Value("${app.stream.timeout-ms:1800000}")
+    private long streamTimeoutMs;
+
+    // Mensajes por lectura al reenviar desde Last-Event-ID
+    private static final int REPLAY_PAGE_SIZE = 100;
+
+    private final Map<String, List<Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+    private record Subscription(String agentType, SseEmitter emitter) {
+    }
+
+    /**
+     * Suscribir al usuario a los mensajes nuevos de una sesión.
+     * La sesión puede no tener mensajes todavía (N8N aún no escribió nada).
+     * Con lastEventId (cabecera Last-Event-ID) se reenvían antes los mensajes posteriores a ese id.
+     */
+    public SseEmitter subscribe(String sessionId, String userId, String agentType, Long lastEventId) {
+        agentRegistry.get(agentType);
+
+        // Dueño exacto, igual que ialegal_session_user_id: un prefijo "userId_" también
+        // coincidía con las sesiones de otros usuarios cuyo nombre empieza igual (john / john_doe)
+        if (!SessionIds.isOwnedBy(sessionId, agentType, userId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Session not found or access denied: " + sessionId);
+        }
+
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        Subscription subscription = new Subscription(agentType, emitter);
+        subscriptions.computeIfAbsent(sessionId, id -> new CopyOnWriteArrayList<>()).add(subscription);
+
+        emitter.onCompletion(() -> unsubscribe(sessionId, subscription));
+        emitter.onTimeout(() -> unsubscribe(sessionId, subscription));
+        emitter.onError(e -> unsubscribe(sessionId, subscription));
+
+        // Después de registrarse: un mensaje que llega durante el reenvío puede salir dos veces
+        // (el cliente descarta por id), pero ninguno se pierde entre la lectura y la suscripción
+        if (lastEventId != null) {
+            replay(sessionId, userId, subscription, lastEventId);
+        }
+
+        log.debug("New stream subscriber for session: {}", sessionId);
+        return emitter;
+    }
+
+    /**
+     * Las notificaciones perdidas mientras no había LISTEN no llegarán: se avisa y se cierra cada
+     * stream, y al reconectar con Last-Event-ID el cliente recibe lo que faltó
+     */
+    @EventListener
+    public void onResync(N8nHistoryResyncEvent event) {
+        subscriptions.forEach((sessionId, sessionSubscriptions) -> {
+            for (Subscription subscription : sessionSubscriptions) {
+                send(sessionId, subscription, SseEmitter.event().name("resync").data(sessionId));
+                subscription.emitter().complete();
+            }
+        });
+        log.debug("Closed all message streams after (re)connecting to history notifications");
+    }
+
+    @EventListener
+    public void onHistoryChanged(N8nHistoryChangedEvent event) {
+        List<Subscription> sessionSubscriptions = subscriptions.get(event.getSessionId());
+        if (sessionSubscriptions == null || sessionSubscriptions.isEmpty()) {
+            return;
+        }
+
+        if (event.getOperation() == N8nHistoryChangedEvent.Operation.DELETE) {
+            for (Subscription subscription : sessionSubscriptions) {
+                if (subscription.agentType().equals(event.getAgentType())) {
+                    send(event.getSessionId(), subscription, SseEmitter.event().name("deleted").data(event.getSessionId()));
+                    subscription.emitter().complete();
+                }
+            }
+            return;
+        }
+
+        // Una lectura por mensaje nuevo, compartida por todos los suscriptores
+        MessageDto message = n8nSessionService.getMessage(event.getAgentType(), event.getMessageId());
+        if (message == null) {
+            return;
+        }
+        for (Subscription subscription : sessionSubscriptions) {
+            if (subscription.agentType().equals(event.getAgentType())) {
+                send(event.getSessionId(), subscription,
+                        SseEmitter.event().id(String.valueOf(message.getId())).name("message").data(message));
+            }
+        }
+    }
+
+    /**
+     * Comentario periódico para que proxies y balanceadores no corten la conexión
+     */
+    @Scheduled(fixedDelayString = "${app.stream.heartbeat-ms:25000}")
+    public void heartbeat() {
+        subscriptions.forEach((sessionId, sessionSubscriptions) -> {
+            for (Subscription subscription : sessionSubscriptions) {
+                send(sessionId, subscription, SseEmitter.event().comment("keepalive"));
+            }
+        });
+    }
+
+    private void replay(String sessionId, String userId, Subscription subscription, long lastEventId) {
+        Long afterId = lastEventId;
+        while (afterId != null) {
+            CursorPageDto<MessageDto> page = n8nSessionService.getSessionMessages(sessionId, userId,
+                    subscription.agentType(), REPLAY_PAGE_SIZE, null, afterId, false);
+            for (MessageDto message : page.getItems()) {
+                send(sessionId, subscription,
+                        SseEmitter.event().id(String.valueOf(message.getId())).name("message").data(message));
+            }
+            afterId = page.getNextCursor() != null ? Long.valueOf(page.getNextCursor()) : null;
+        }
+    }
+
+    private void send(String sessionId, Subscription subscription, SseEmitter.SseEventBuilder event) {
+        try {
+            subscription.emitter().send(event);
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Dropping stream subscriber for session {}: {}", sessionId, e.getMessage());
+            unsubscribe(sessionId, subscription);
+        }
+    }
+
+    private void unsubscribe(String sessionId, Subscription subscription) {
+        subscriptions.computeIfPresent(sessionId, (id, list) -> {
+            list.remove(subscription);
+            return list.isEmpty() ? null : list;
+        });
+    }
+}
@@ -0,0 +1,15 @@
+package com.ialegal.backend.service;
+
+/**
+ * Convierte texto en un vector denso para la búsqueda semántica.
+ * Las implementaciones deben ejecutarse localmente (sin red) y ser deterministas:
+ * el mismo texto produce siempre el mismo vector.
+ */
+public interface TextEmbedder {
+
+    // Dimensión de los vectores; debe coincidir con la columna vector(n) de n8n_message_embeddings
+    int dimensions();
+
+    // Vector normalizado (norma 1); todo ceros si el texto no tiene términos
+    float[] embed(String text);
+}
@@ -0,0 +1,85 @@
+package com.ialegal.backend.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+
+/**
+ * Extractor liviano del JSONB "message" que guarda N8N.
+ * Recorre el JSON con el parser de streaming de Jackson y solo lee los campos
+ * "type" y "content"; additional_kwargs, response_metadata y cualquier otro
+ * subárbol se saltean sin materializarse en memoria.
+ */
+public final class N8nMessageParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private N8nMessageParser() {
+    }
+
+    /**
+     * Campos del mensaje que usa el backend
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class MessageContent {
+        private String type; // "human" o "ai"
+
+        private String content; // El texto del mensaje
+    }
+
+    public static MessageContent parse(String json) {
+        if (json == null) {
+            return null;
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new RuntimeException("Error parsing message JSON: expected object");
+            }
+
+            String type = null;
+            String content = null;
+            boolean typeFound = false;
+            boolean contentFound = false;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+
+                if ("type".equals(field)) {
+                    type = readText(parser, value);
+                    typeFound = true;
+                } else if ("content".equals(field)) {
+                    content = readText(parser, value);
+                    contentFound = true;
+                } else {
+                    parser.skipChildren();
+                }
+
+                // No hace falta leer el resto del documento
+                if (typeFound && contentFound) {
+                    break;
+                }
+            }
+
+            return new MessageContent(type, content);
+        } catch (IOException e) {
+            throw new RuntimeException("Error parsing message JSON: " + e.getMessage(), e);
+        }
+    }
+
+    private static String readText(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        // Valores no textuales (null, objetos, arrays) no se usan como texto
+        parser.skipChildren();
+        return null;
+    }
+}
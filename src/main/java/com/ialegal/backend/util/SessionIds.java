@@ -0,0 +1,29 @@
+package com.ialegal.backend.util;
+
+/**
+ * Lectura del sessionId generado por el backend (formato: userId_agentType_timestamp_uuid).
+ * Debe dar el mismo resultado que la función SQL ialegal_session_user_id (V1), que es la que
+ * alimenta user_id en los resúmenes y el índice por usuario de las tablas de historial.
+ */
+public final class SessionIds {
+
+    private SessionIds() {
+    }
+
+    /**
+     * Usuario dueño de la sesión. El userId puede contener '_' (preferred_username), así que se
+     * corta en la primera aparición de _agentType_ y no en el primer '_'.
+     */
+    public static String userIdOf(String sessionId, String agentType) {
+        int agentPosition = sessionId.indexOf("_" + agentType + "_");
+        if (agentPosition > 0) {
+            return sessionId.substring(0, agentPosition);
+        }
+        int separator = sessionId.indexOf('_');
+        return separator >= 0 ? sessionId.substring(0, separator) : sessionId;
+    }
+
+    public static boolean isOwnedBy(String sessionId, String agentType, String userId) {
+        return userId != null && userId.equals(userIdOf(sessionId, agentType));
+    }
+}
@@ -0,0 +1,128 @@
+-- Resumen por sesión de las tablas de historial de N8N.
+-- Se mantiene de forma incremental con triggers sobre n8n_chat_histories_*,
+-- de modo que el listado de sesiones lee una fila por sesión en lugar de
+-- agrupar todos los mensajes del usuario.
+
+CREATE TABLE IF NOT EXISTS n8n_session_summaries (
+    agent_type       VARCHAR(50)  NOT NULL,
+    session_id       VARCHAR(255) NOT NULL,
+    user_id          VARCHAR(255) NOT NULL,
+    first_message_id BIGINT       NOT NULL,
+    last_message_id  BIGINT       NOT NULL,
+    message_count    BIGINT       NOT NULL,
+    created_at       TIMESTAMP,
+    updated_at       TIMESTAMP,
+    title            VARCHAR(200),
+    PRIMARY KEY (agent_type, session_id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_n8n_session_summaries_user
+    ON n8n_session_summaries (user_id, agent_type, last_message_id DESC);
+
+-- userId del sessionId (formato: userId_agentType_timestamp_uuid)
+CREATE OR REPLACE FUNCTION ialegal_session_user_id(p_session_id TEXT, p_agent TEXT)
+RETURNS TEXT
+LANGUAGE sql IMMUTABLE AS $$
+    SELECT CASE
+        WHEN position('_' || p_agent || '_' IN p_session_id) > 1
+            THEN left(p_session_id, position('_' || p_agent || '_' IN p_session_id) - 1)
+        ELSE split_part(p_session_id, '_', 1)
+    END
+$$;
+
+-- Recalcula desde la tabla de historial el resumen de las sesiones indicadas
+-- (o de todas si p_session_ids es NULL)
+CREATE OR REPLACE FUNCTION ialegal_rebuild_session_summaries(p_table TEXT, p_agent TEXT, p_session_ids TEXT[])
+RETURNS VOID
+LANGUAGE plpgsql AS $$
+BEGIN
+    DELETE FROM n8n_session_summaries
+     WHERE agent_type = p_agent
+       AND (p_session_ids IS NULL OR session_id = ANY (p_session_ids));
+
+    EXECUTE format(
+        'INSERT INTO n8n_session_summaries (agent_type, session_id, user_id, first_message_id, last_message_id, '
+        || 'message_count, created_at, updated_at, title) '
+        || 'SELECT $1, h.session_id, ialegal_session_user_id(h.session_id, $1), MIN(h.id), MAX(h.id), COUNT(*), '
+        || '(array_agg(h.created_at ORDER BY h.id ASC))[1], '
+        || '(array_agg(h.created_at ORDER BY h.id DESC))[1], '
+        || 'left((array_agg(h.message->>''content'' ORDER BY h.id ASC) '
+        || 'FILTER (WHERE h.message->>''type'' = ''human''))[1], 200) '
+        || 'FROM %I h '
+        || 'WHERE $2 IS NULL OR h.session_id = ANY ($2) '
+        || 'GROUP BY h.session_id',
+        p_table)
+    USING p_agent, p_session_ids;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION ialegal_session_summary_on_insert()
+RETURNS TRIGGER
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_agent TEXT := TG_ARGV[0];
+    v_ts    TIMESTAMP := COALESCE(NEW.created_at, CURRENT_TIMESTAMP);
+BEGIN
+    INSERT INTO n8n_session_summaries AS s (agent_type, session_id, user_id, first_message_id, last_message_id,
+                                            message_count, created_at, updated_at, title)
+    VALUES (v_agent, NEW.session_id, ialegal_session_user_id(NEW.session_id, v_agent), NEW.id, NEW.id, 1, v_ts, v_ts,
+            CASE WHEN NEW.message->>'type' = 'human' THEN left(NEW.message->>'content', 200) END)
+    ON CONFLICT (agent_type, session_id) DO UPDATE SET
+        first_message_id = LEAST(s.first_message_id, EXCLUDED.first_message_id),
+        last_message_id  = GREATEST(s.last_message_id, EXCLUDED.last_message_id),
+        message_count    = s.message_count + 1,
+        created_at       = CASE WHEN EXCLUDED.first_message_id < s.first_message_id
+                                THEN EXCLUDED.created_at ELSE s.created_at END,
+        updated_at       = CASE WHEN EXCLUDED.last_message_id > s.last_message_id
+                                THEN EXCLUDED.updated_at ELSE s.updated_at END,
+        title            = COALESCE(s.title, EXCLUDED.title);
+    RETURN NULL;
+END;
+$$;
+
+-- Trigger por sentencia: recalcula una vez cada sesión afectada por el DELETE
+CREATE OR REPLACE FUNCTION ialegal_session_summary_on_delete()
+RETURNS TRIGGER
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_sessions TEXT[];
+BEGIN
+    SELECT array_agg(DISTINCT session_id) INTO v_sessions FROM deleted_rows;
+    IF v_sessions IS NOT NULL THEN
+        PERFORM ialegal_rebuild_session_summaries(TG_TABLE_NAME, TG_ARGV[0], v_sessions);
+    END IF;
+    RETURN NULL;
+END;
+$$;
+
+-- Instala los triggers del backend sobre una tabla de historial y, si el agente
+-- todavía no tiene resúmenes, los carga a partir de los mensajes existentes.
+CREATE OR REPLACE FUNCTION ialegal_attach_history_triggers(p_table TEXT, p_agent TEXT)
+RETURNS VOID
+LANGUAGE plpgsql AS $$
+BEGIN
+    IF to_regclass(p_table) IS NULL THEN
+        RAISE NOTICE 'History table % does not exist yet, skipping', p_table;
+        RETURN;
+    END IF;
+
+    EXECUTE format('DROP TRIGGER IF EXISTS ialegal_summary_ins ON %I', p_table);
+    EXECUTE format('CREATE TRIGGER ialegal_summary_ins AFTER INSERT ON %I '
+                   || 'FOR EACH ROW EXECUTE FUNCTION ialegal_session_summary_on_insert(%L)', p_table, p_agent);
+
+    EXECUTE format('DROP TRIGGER IF EXISTS ialegal_summary_del ON %I', p_table);
+    EXECUTE format('CREATE TRIGGER ialegal_summary_del AFTER DELETE ON %I '
+                   || 'REFERENCING OLD TABLE AS deleted_rows '
+                   || 'FOR EACH STATEMENT EXECUTE FUNCTION ialegal_session_summary_on_delete(%L)', p_table, p_agent);
+
+    -- El CREATE TRIGGER bloquea inserts hasta el commit, así que la carga inicial es consistente
+    IF NOT EXISTS (SELECT 1 FROM n8n_session_summaries WHERE agent_type = p_agent) THEN
+        PERFORM ialegal_rebuild_session_summaries(p_table, p_agent, NULL);
+    END IF;
+END;
+$$;
+
+SELECT ialegal_attach_history_triggers('n8n_chat_histories_contratos', 'ia-contratos');
+SELECT ialegal_attach_history_triggers('n8n_chat_histories_laboral', 'ia-laboral');
+SELECT ialegal_attach_history_triggers('n8n_chat_histories_defensa', 'ia-defensa-consumidor');
+SELECT ialegal_attach_history_triggers('n8n_chat_histories_general', 'ia-general');
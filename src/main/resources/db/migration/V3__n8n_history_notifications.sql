@@ -0,0 +1,84 @@
+-- Notificaciones LISTEN/NOTIFY sobre las tablas de historial de N8N.
+-- Cada INSERT emite una notificación con el id del mensaje; cada DELETE emite
+-- una sola notificación por sesión afectada. Canal: ialegal_history.
+
+CREATE OR REPLACE FUNCTION ialegal_history_notify_insert()
+RETURNS TRIGGER
+LANGUAGE plpgsql AS $$
+BEGIN
+    PERFORM pg_notify('ialegal_history', json_build_object(
+        'op', 'insert',
+        'agentType', TG_ARGV[0],
+        'sessionId', NEW.session_id,
+        'messageId', NEW.id)::text);
+    RETURN NULL;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION ialegal_history_notify_delete()
+RETURNS TRIGGER
+LANGUAGE plpgsql AS $$
+BEGIN
+    PERFORM pg_notify('ialegal_history', json_build_object(
+        'op', 'delete',
+        'agentType', TG_ARGV[0],
+        'sessionId', d.session_id)::text)
+       FROM (SELECT DISTINCT session_id FROM deleted_rows) d;
+    RETURN NULL;
+END;
+$$;
+
+-- Triggers de resumen (V1) separados en su propia función
+CREATE OR REPLACE FUNCTION ialegal_attach_summary_triggers(p_table TEXT, p_agent TEXT)
+RETURNS VOID
+LANGUAGE plpgsql AS $$
+BEGIN
+    EXECUTE format('DROP TRIGGER IF EXISTS ialegal_summary_ins ON %I', p_table);
+    EXECUTE format('CREATE TRIGGER ialegal_summary_ins AFTER INSERT ON %I '
+                   || 'FOR EACH ROW EXECUTE FUNCTION ialegal_session_summary_on_insert(%L)', p_table, p_agent);
+
+    EXECUTE format('DROP TRIGGER IF EXISTS ialegal_summary_del ON %I', p_table);
+    EXECUTE format('CREATE TRIGGER ialegal_summary_del AFTER DELETE ON %I '
+                   || 'REFERENCING OLD TABLE AS deleted_rows '
+                   || 'FOR EACH STATEMENT EXECUTE FUNCTION ialegal_session_summary_on_delete(%L)', p_table, p_agent);
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION ialegal_attach_notify_triggers(p_table TEXT, p_agent TEXT)
+RETURNS VOID
+LANGUAGE plpgsql AS $$
+BEGIN
+    EXECUTE format('DROP TRIGGER IF EXISTS ialegal_notify_ins ON %I', p_table);
+    EXECUTE format('CREATE TRIGGER ialegal_notify_ins AFTER INSERT ON %I '
+                   || 'FOR EACH ROW EXECUTE FUNCTION ialegal_history_notify_insert(%L)', p_table, p_agent);
+
+    EXECUTE format('DROP TRIGGER IF EXISTS ialegal_notify_del ON %I', p_table);
+    EXECUTE format('CREATE TRIGGER ialegal_notify_del AFTER DELETE ON %I '
+                   || 'REFERENCING OLD TABLE AS deleted_rows '
+                   || 'FOR EACH STATEMENT EXECUTE FUNCTION ialegal_history_notify_delete(%L)', p_table, p_agent);
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION ialegal_attach_history_triggers(p_table TEXT, p_agent TEXT)
+RETURNS VOID
+LANGUAGE plpgsql AS $$
+BEGIN
+    IF to_regclass(p_table) IS NULL THEN
+        RAISE NOTICE 'History table % does not exist yet, skipping', p_table;
+        RETURN;
+    END IF;
+
+    PERFORM ialegal_attach_summary_triggers(p_table, p_agent);
+    PERFORM ialegal_attach_notify_triggers(p_table, p_agent);
+
+    -- El CREATE TRIGGER bloquea inserts hasta el commit, así que la carga inicial es consistente
+    IF NOT EXISTS (SELECT 1 FROM n8n_session_summaries WHERE agent_type = p_agent) THEN
+        PERFORM ialegal_rebuild_session_summaries(p_table, p_agent, NULL);
+    END IF;
+END;
+$$;
+
+SELECT ialegal_attach_history_triggers('n8n_chat_histories_contratos', 'ia-contratos');
+SELECT ialegal_attach_history_triggers('n8n_chat_histories_laboral', 'ia-laboral');
+SELECT ialegal_attach_history_triggers('n8n_chat_histories_defensa', 'ia-defensa-consumidor');
+SELECT ialegal_attach_history_triggers('n8n_chat_histories_general', 'ia-general');
@@ -0,0 +1,17 @@
+-- Búsqueda de texto completo sobre el contenido de los mensajes de N8N.
+-- Configuración 'ialegal_es': diccionario español con eliminación de acentos,
+-- para que "indemnizacion" encuentre "indemnización" y viceversa.
+-- El índice GIN de expresión de cada tabla lo crea N8nHistoryRepository al arrancar
+-- (CREATE INDEX CONCURRENTLY, ver V7): no añade columnas ni bloquea a N8N.
+
+CREATE EXTENSION IF NOT EXISTS unaccent;
+
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_ts_config WHERE cfgname = 'ialegal_es') THEN
+        CREATE TEXT SEARCH CONFIGURATION ialegal_es (COPY = pg_catalog.spanish);
+        ALTER TEXT SEARCH CONFIGURATION ialegal_es
+            ALTER MAPPING FOR hword, hword_part, word WITH unaccent, spanish_stem;
+    END IF;
+END;
+$$;
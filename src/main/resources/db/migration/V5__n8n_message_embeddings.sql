@@ -0,0 +1,42 @@
+-- Embeddings de los mensajes de N8N para búsqueda semántica (pgvector).
+-- Tabla propia: las tablas de historial de N8N no tienen columna vector.
+-- Si el servidor no tiene pgvector instalado la migración no crea nada y la
+-- búsqueda semántica queda deshabilitada (app.semantic.enabled).
+
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_available_extensions WHERE name = 'vector') THEN
+        RAISE NOTICE 'pgvector is not available, skipping message embeddings';
+        RETURN;
+    END IF;
+
+    CREATE EXTENSION IF NOT EXISTS vector;
+
+    -- La dimensión debe coincidir con TextEmbedder.dimensions()
+    CREATE TABLE IF NOT EXISTS n8n_message_embeddings (
+        agent_type  VARCHAR(50)  NOT NULL,
+        message_id  BIGINT       NOT NULL,
+        session_id  VARCHAR(255) NOT NULL,
+        user_id     VARCHAR(255) NOT NULL,
+        embedding   vector(256)  NOT NULL,
+        PRIMARY KEY (agent_type, message_id)
+    );
+
+    -- Vecinos más cercanos por coseno sobre todo el volumen
+    CREATE INDEX IF NOT EXISTS n8n_message_embeddings_hnsw_idx
+        ON n8n_message_embeddings USING hnsw (embedding vector_cosine_ops);
+
+    -- Para usuarios con pocos mensajes el planner prefiere el recorrido exacto por usuario
+    CREATE INDEX IF NOT EXISTS n8n_message_embeddings_user_idx
+        ON n8n_message_embeddings (user_id, agent_type);
+
+    CREATE INDEX IF NOT EXISTS n8n_message_embeddings_session_idx
+        ON n8n_message_embeddings (agent_type, session_id);
+
+    -- Último id procesado por agente; se actualiza en la misma transacción que los embeddings
+    CREATE TABLE IF NOT EXISTS n8n_embedding_watermarks (
+        agent_type      VARCHAR(50) PRIMARY KEY,
+        last_message_id BIGINT      NOT NULL DEFAULT 0
+    );
+END;
+$$;
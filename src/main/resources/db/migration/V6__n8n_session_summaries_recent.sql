@@ -0,0 +1,37 @@
+-- Feed de sesiones recientes de todos los agentes: el resumen ya tiene las
+-- sesiones de las cuatro tablas, así que basta un índice por usuario y actividad.
+-- updated_at pasa a ser obligatorio para poder paginar por keyset sobre él.
+
+CREATE OR REPLACE FUNCTION ialegal_rebuild_session_summaries(p_table TEXT, p_agent TEXT, p_session_ids TEXT[])
+RETURNS VOID
+LANGUAGE plpgsql AS $$
+BEGIN
+    DELETE FROM n8n_session_summaries
+     WHERE agent_type = p_agent
+       AND (p_session_ids IS NULL OR session_id = ANY (p_session_ids));
+
+    -- Mensajes sin created_at: la sesión queda al final del feed (epoch) en lugar de sin fecha
+    EXECUTE format(
+        'INSERT INTO n8n_session_summaries (agent_type, session_id, user_id, first_message_id, last_message_id, '
+        || 'message_count, created_at, updated_at, title) '
+        || 'SELECT $1, h.session_id, ialegal_session_user_id(h.session_id, $1), MIN(h.id), MAX(h.id), COUNT(*), '
+        || '(array_agg(h.created_at ORDER BY h.id ASC))[1], '
+        || 'COALESCE((array_agg(h.created_at ORDER BY h.id DESC))[1], TIMESTAMP ''epoch''), '
+        || 'left((array_agg(h.message->>''content'' ORDER BY h.id ASC) '
+        || 'FILTER (WHERE h.message->>''type'' = ''human''))[1], 200) '
+        || 'FROM %I h '
+        || 'WHERE $2 IS NULL OR h.session_id = ANY ($2) '
+        || 'GROUP BY h.session_id',
+        p_table)
+    USING p_agent, p_session_ids;
+END;
+$$;
+
+UPDATE n8n_session_summaries
+   SET updated_at = COALESCE(created_at, TIMESTAMP 'epoch')
+ WHERE updated_at IS NULL;
+
+ALTER TABLE n8n_session_summaries ALTER COLUMN updated_at SET NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_n8n_session_summaries_recent
+    ON n8n_session_summaries (user_id, updated_at DESC, agent_type DESC, session_id DESC);
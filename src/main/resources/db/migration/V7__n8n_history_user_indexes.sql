@@ -0,0 +1,65 @@
+-- Consultas por usuario sobre las tablas de historial sin modificar las tablas de N8N.
+--
+-- El filtro de pertenencia era session_id LIKE CONCAT(:userId, '_%'): con un patrón
+-- parametrizado ningún índice lo resuelve, y el '_' del LIKE es un comodín (el usuario
+-- "ab" también coincidía con las sesiones de "abc"). Ahora las consultas comparan por
+-- igualdad ialegal_session_user_id(session_id, '<agentType>') = :userId, y cada tabla
+-- tiene un índice sobre esa misma expresión.
+--
+-- Índices por tabla (los crea N8nHistoryRepository al arrancar, con CREATE INDEX CONCURRENTLY):
+--   (session_id text_pattern_ops, id)                          mensajes de una sesión por rangos de id
+--   (ialegal_session_user_id(session_id, agente), id)          pertenencia y búsqueda por usuario
+--   (session_id, id) WHERE type = 'human'                      primer mensaje del usuario (título de la sesión)
+--   GIN to_tsvector(contenido)                                 texto completo (configuración de V4)
+-- No se agregan columnas: una columna generada STORED reescribe la tabla bajo ACCESS EXCLUSIVE
+-- y bloquea a N8N durante toda la reescritura. Un índice CONCURRENTLY solo toma
+-- SHARE UPDATE EXCLUSIVE (N8N sigue insertando y borrando), pero no puede ejecutarse dentro
+-- de una transacción, ni de la migración ni de una función: por eso no se crea aquí.
+-- Esta migración solo redefine funciones y no toma bloqueos sobre las tablas de historial.
+
+-- El título sale del índice parcial de mensajes humanos en lugar de agregar todo el contenido
+CREATE OR REPLACE FUNCTION ialegal_rebuild_session_summaries(p_table TEXT, p_agent TEXT, p_session_ids TEXT[])
+RETURNS VOID
+LANGUAGE plpgsql AS $$
+BEGIN
+    DELETE FROM n8n_session_summaries
+     WHERE agent_type = p_agent
+       AND (p_session_ids IS NULL OR session_id = ANY (p_session_ids));
+
+    EXECUTE format(
+        'INSERT INTO n8n_session_summaries (agent_type, session_id, user_id, first_message_id, last_message_id, '
+        || 'message_count, created_at, updated_at, title) '
+        || 'SELECT $1, s.session_id, ialegal_session_user_id(s.session_id, $1), s.first_id, s.last_id, s.total, '
+        || 's.created_at, s.updated_at, '
+        || '(SELECT left(t.message->>''content'', 200) FROM %I t '
+        || 'WHERE t.session_id = s.session_id AND t.message->>''type'' = ''human'' ORDER BY t.id LIMIT 1) '
+        || 'FROM (SELECT h.session_id, MIN(h.id) AS first_id, MAX(h.id) AS last_id, COUNT(*) AS total, '
+        || '(array_agg(h.created_at ORDER BY h.id ASC))[1] AS created_at, '
+        || 'COALESCE((array_agg(h.created_at ORDER BY h.id DESC))[1], TIMESTAMP ''epoch'') AS updated_at '
+        || 'FROM %I h '
+        || 'WHERE $2 IS NULL OR h.session_id = ANY ($2) '
+        || 'GROUP BY h.session_id) s',
+        p_table, p_table)
+    USING p_agent, p_session_ids;
+END;
+$$;
+
+-- Solo triggers y carga inicial de resúmenes; los índices los crea la aplicación antes de llamarla
+CREATE OR REPLACE FUNCTION ialegal_attach_history_triggers(p_table TEXT, p_agent TEXT)
+RETURNS VOID
+LANGUAGE plpgsql AS $$
+BEGIN
+    IF to_regclass(p_table) IS NULL THEN
+        RAISE NOTICE 'History table % does not exist yet, skipping', p_table;
+        RETURN;
+    END IF;
+
+    PERFORM ialegal_attach_summary_triggers(p_table, p_agent);
+    PERFORM ialegal_attach_notify_triggers(p_table, p_agent);
+
+    -- El CREATE TRIGGER bloquea inserts hasta el commit, así que la carga inicial es consistente
+    IF NOT EXISTS (SELECT 1 FROM n8n_session_summaries WHERE agent_type = p_agent) THEN
+        PERFORM ialegal_rebuild_session_summaries(p_table, p_agent, NULL);
+    END IF;
+END;
+$$;
@@ -0,0 +1,46 @@
+-- Proyección del historial de N8N al modelo relacional (chat_sessions / chat_messages).
+-- Las tablas pueden existir ya (creadas cuando ddl-auto estaba activo): todo es IF NOT EXISTS.
+-- source_message_id es el id del mensaje en la tabla de N8N; con el índice único la
+-- proyección es idempotente aunque un lote se vuelva a procesar.
+
+CREATE TABLE IF NOT EXISTS chat_sessions (
+    session_id    VARCHAR(100) PRIMARY KEY,
+    user_id       VARCHAR(100) NOT NULL,
+    agent_type    VARCHAR(50)  NOT NULL,
+    session_name  VARCHAR(200) NOT NULL,
+    created_at    TIMESTAMP    NOT NULL,
+    updated_at    TIMESTAMP,
+    message_count INTEGER,
+    is_active     BOOLEAN
+);
+
+CREATE TABLE IF NOT EXISTS chat_messages (
+    id                 BIGSERIAL PRIMARY KEY,
+    session_id         VARCHAR(100) NOT NULL REFERENCES chat_sessions (session_id),
+    content            TEXT         NOT NULL,
+    is_user            BOOLEAN      NOT NULL,
+    created_at         TIMESTAMP    NOT NULL,
+    message_order      INTEGER,
+    agent_response     TEXT,
+    processing_time_ms BIGINT,
+    error_message      TEXT,
+    metadata           TEXT
+);
+
+ALTER TABLE chat_messages ADD COLUMN IF NOT EXISTS source_message_id BIGINT;
+
+CREATE UNIQUE INDEX IF NOT EXISTS chat_messages_source_idx
+    ON chat_messages (session_id, source_message_id);
+
+CREATE INDEX IF NOT EXISTS chat_messages_session_order_idx
+    ON chat_messages (session_id, message_order);
+
+CREATE INDEX IF NOT EXISTS chat_sessions_user_agent_idx
+    ON chat_sessions (user_id, agent_type, updated_at DESC);
+
+-- Último id proyectado por agente; se actualiza en la misma transacción que el lote
+CREATE TABLE IF NOT EXISTS chat_projection_watermarks (
+    agent_type      VARCHAR(50) PRIMARY KEY,
+    last_message_id BIGINT      NOT NULL DEFAULT 0,
+    updated_at      TIMESTAMP   NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
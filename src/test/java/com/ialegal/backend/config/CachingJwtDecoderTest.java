@@ -0,0 +1,77 @@
+package com.ialegal.backend.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CachingJwtDecoderTest {
+
+    private final AtomicInteger verifications = new AtomicInteger();
+
+    @Test
+    void validTokenIsVerifiedOnce() {
+        CachingJwtDecoder decoder = new CachingJwtDecoder(token -> {
+            verifications.incrementAndGet();
+            return jwt(token, Instant.now().plus(Duration.ofMinutes(5)));
+        }, 100);
+
+        Jwt first = decoder.decode("a.b.c");
+        Jwt second = decoder.decode("a.b.c");
+        decoder.decode("d.e.f");
+
+        assertThat(second).isSameAs(first);
+        assertThat(verifications.get()).isEqualTo(2);
+    }
+
+    @Test
+    void rejectedTokenIsNotCached() {
+        CachingJwtDecoder decoder = new CachingJwtDecoder(token -> {
+            verifications.incrementAndGet();
+            throw new BadJwtException("bad signature");
+        }, 100);
+
+        assertThatThrownBy(() -> decoder.decode("a.b.c")).isInstanceOf(BadJwtException.class);
+        assertThatThrownBy(() -> decoder.decode("a.b.c")).isInstanceOf(BadJwtException.class);
+        assertThat(verifications.get()).isEqualTo(2);
+    }
+
+    @Test
+    void tokenWithoutExpirationIsNotCached() {
+        CachingJwtDecoder decoder = new CachingJwtDecoder(token -> {
+            verifications.incrementAndGet();
+            return jwt(token, null);
+        }, 100);
+
+        decoder.decode("a.b.c");
+        decoder.decode("a.b.c");
+        assertThat(verifications.get()).isEqualTo(2);
+    }
+
+    @Test
+    void cachedTokenIsVerifiedAgainAfterItExpires() throws Exception {
+        CachingJwtDecoder decoder = new CachingJwtDecoder(token -> {
+            verifications.incrementAndGet();
+            return jwt(token, Instant.now().plusMillis(200));
+        }, 100);
+
+        decoder.decode("a.b.c");
+        Thread.sleep(300);
+        decoder.decode("a.b.c");
+        assertThat(verifications.get()).isEqualTo(2);
+    }
+
+    private static Jwt jwt(String token, Instant expiresAt) {
+        Jwt.Builder jwt = Jwt.withTokenValue(token)
+                .header("alg", "RS256")
+                .claim("preferred_username", "john")
+                .issuedAt(Instant.now().minusSeconds(60));
+        return expiresAt != null ? jwt.expiresAt(expiresAt).build() : jwt.build();
+    }
+}
@@ -0,0 +1,146 @@
+package com.ialegal.backend.config;
+
+import com.ialegal.backend.support.HistoryDatabase;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Compuerta de conexiones del modo de hilos virtuales. El benchmark compara el modo clásico
+ * (pool fijo de hilos de plataforma como el de Tomcat) con un hilo virtual por request detrás de
+ * la compuerta, con el mismo pool de conexiones; se ejecuta con mvn test -Pbenchmark.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@Slf4j
+class ConcurrencyGatedDataSourceTest {
+
+    private static final int POOL_SIZE = 4;
+
+    @Test
+    void gateKeepsOpenConnectionsWithinThePoolSize() throws Exception {
+        try (ConcurrencyGatedDataSource dataSource = gated(POOL_SIZE, 60_000)) {
+            AtomicInteger open = new AtomicInteger();
+            AtomicInteger maxOpen = new AtomicInteger();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<?>> results = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    results.add(executor.submit(() -> {
+                        try (Connection connection = dataSource.getConnection()) {
+                            maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+                            sleepInDatabase(connection, 10);
+                            open.decrementAndGet();
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) {
+                    result.get(1, TimeUnit.MINUTES);
+                }
+            }
+            assertThat(maxOpen.get()).isLessThanOrEqualTo(POOL_SIZE);
+            assertThat(dataSource.getHikariPoolMXBean().getActiveConnections()).isZero();
+        }
+    }
+
+    @Test
+    void waiterGivesUpAfterMaxWaitAndClosingReleasesThePermit() throws Exception {
+        try (ConcurrencyGatedDataSource dataSource = gated(1, 200)) {
+            Connection held = dataSource.getConnection();
+            assertThatThrownBy(dataSource::getConnection)
+                    .isInstanceOf(SQLTransientConnectionException.class)
+                    .hasMessageContaining("200 ms");
+
+            held.close();
+            // Un segundo close no devuelve otro permiso
+            held.close();
+            try (Connection connection = dataSource.getConnection()) {
+                assertThat(connection.isValid(1)).isTrue();
+                assertThatThrownBy(dataSource::getConnection).isInstanceOf(SQLTransientConnectionException.class);
+            }
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void platformThreadPoolAgainstVirtualThreadsBehindTheGate() throws Exception {
+        int requests = 4000;
+        // Cada request espera 20 ms fuera de la base (otro servicio) y luego hace una consulta de 2 ms
+        try (HikariDataSource plain = pool(new HikariDataSource(), 10);
+             ExecutorService tomcatLike = Executors.newFixedThreadPool(200)) {
+            report("platform threads (200), pool 10", tomcatLike, plain, requests);
+        }
+        try (ConcurrencyGatedDataSource gated = pool(new ConcurrencyGatedDataSource(120_000), 10);
+             ExecutorService virtual = Executors.newVirtualThreadPerTaskExecutor()) {
+            report("virtual threads + gate, pool 10", virtual, gated, requests);
+        }
+    }
+
+    private static void report(String name, ExecutorService executor, DataSource dataSource, int requests)
+            throws Exception {
+        long[] nanos = new long[requests];
+        AtomicInteger failures = new AtomicInteger();
+        List<Future<?>> results = new ArrayList<>(requests);
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            int request = i;
+            results.add(executor.submit(() -> {
+                long requestStart = System.nanoTime();
+                try {
+                    Thread.sleep(20);
+                    try (Connection connection = dataSource.getConnection()) {
+                        sleepInDatabase(connection, 2);
+                    }
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+                nanos[request] = System.nanoTime() - requestStart;
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(5, TimeUnit.MINUTES);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Arrays.sort(nanos);
+        log.info("{}: {} req/s, p50 {} ms, p99 {} ms, failures {}", name, Math.round(requests / seconds),
+                String.format("%.1f", nanos[requests / 2] / 1e6), String.format("%.1f", nanos[requests * 99 / 100] / 1e6),
+                failures.get());
+        assertThat(failures.get()).isZero();
+    }
+
+    private static ConcurrencyGatedDataSource gated(int poolSize, long maxWaitMs) {
+        return pool(new ConcurrencyGatedDataSource(maxWaitMs), poolSize);
+    }
+
+    private static <T extends HikariDataSource> T pool(T dataSource, int poolSize) {
+        dataSource.setJdbcUrl(HistoryDatabase.jdbcUrl());
+        dataSource.setUsername(HistoryDatabase.username());
+        dataSource.setPassword(HistoryDatabase.password());
+        dataSource.setMaximumPoolSize(poolSize);
+        return dataSource;
+    }
+
+    private static void sleepInDatabase(Connection connection, int millis) throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SELECT pg_sleep(" + millis / 1000.0 + ")");
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.ialegal.backend.config;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.test.context.junit.jupiter.web.SpringJUnitWebConfig;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.jwt;
+import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Cadena de seguridad completa con el decoder de SecurityConfig y las claves de un JWK set
+ * local (app.security.jwk-set-file): tokens firmados de verdad, rotación de claves y
+ * caducidad, sin Keycloak.
+ */
+@SpringJUnitWebConfig(JwtDecodingTest.Config.class)
+class JwtDecodingTest {
+
+    private static final Path JWK_SET_FILE;
+    private static final RSAKey CURRENT_KEY;
+    private static final RSAKey ROTATED_KEY;
+
+    static {
+        try {
+            CURRENT_KEY = new RSAKeyGenerator(2048).keyID("current").generate();
+            ROTATED_KEY = new RSAKeyGenerator(2048).keyID("rotated").generate();
+            JWK_SET_FILE = Files.createTempFile("jwks", ".json");
+            JWK_SET_FILE.toFile().deleteOnExit();
+        } catch (JOSEException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+        publish(CURRENT_KEY);
+    }
+
+    @Autowired
+    private WebApplicationContext context;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        publish(CURRENT_KEY);
+        mockMvc = MockMvcBuilders.webAppContextSetup(context).apply(springSecurity()).build();
+    }
+
+    @Test
+    void tokenSignedWithAKeyFromTheFileIsAccepted() throws Exception {
+        String token = token(CURRENT_KEY, "john", Duration.ofMinutes(5));
+
+        mockMvc.perform(get("/api/sessions/whoami").header(HttpHeaders.AUTHORIZATION, "Bearer " + token))
+                .andExpect(status().isOk())
+                .andExpect(content().string("john"));
+        // Segunda request con el mismo token: sale de la caché de tokens validados
+        mockMvc.perform(get("/api/sessions/whoami").header(HttpHeaders.AUTHORIZATION, "Bearer " + token))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void tokenSignedWithAnUnknownKeyIsRejected() throws Exception {
+        String token = token(ROTATED_KEY, "john", Duration.ofMinutes(5));
+
+        mockMvc.perform(get("/api/sessions/whoami").header(HttpHeaders.AUTHORIZATION, "Bearer " + token))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void rotatedKeyIsPickedUpByReloadingTheFile() throws Exception {
+        publish(ROTATED_KEY);
+        String token = token(ROTATED_KEY, "john", Duration.ofMinutes(5));
+
+        mockMvc.perform(get("/api/sessions/whoami").header(HttpHeaders.AUTHORIZATION, "Bearer " + token))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void expiredTokenIsRejected() throws Exception {
+        String token = token(CURRENT_KEY, "john", Duration.ofMinutes(-5));
+
+        mockMvc.perform(get("/api/sessions/whoami").header(HttpHeaders.AUTHORIZATION, "Bearer " + token))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void requestWithoutTokenIsRejected() throws Exception {
+        mockMvc.perform(get("/api/sessions/whoami"))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void actuatorMetricsRequireTheActuatorRole() throws Exception {
+        mockMvc.perform(get("/actuator/metrics").with(jwt()))
+                .andExpect(status().isForbidden());
+    }
+
+    private static String token(RSAKey key, String username, Duration validFor) throws JOSEException {
+        Instant now = Instant.now();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(),
+                new JWTClaimsSet.Builder()
+                        .subject("f3b1c2d4")
+                        .claim("preferred_username", username)
+                        .issueTime(Date.from(now.minus(Duration.ofMinutes(10))))
+                        .expirationTime(Date.from(now.plus(validFor)))
+                        .build());
+        jwt.sign(new RSASSASigner(key));
+        return jwt.serialize();
+    }
+
+    private static void publish(RSAKey key) {
+        try {
+            Files.writeString(JWK_SET_FILE, new JWKSet(key.toPublicJWK()).toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Configuration
+    @EnableWebMvc
+    @Import(SecurityConfig.class)
+    static class Config {
+
+        // Sin intervalo mínimo: un kid desconocido relee el fichero en cada request
+        @Bean
+        JwkSetCache jwkSetCache() {
+            return new JwkSetCache(new DefaultResourceLoader(), "", JWK_SET_FILE.toUri().toString(), 0);
+        }
+
+        @Bean
+        WhoAmIController whoAmIController() {
+            return new WhoAmIController();
+        }
+    }
+
+    @RestController
+    static class WhoAmIController {
+
+        @GetMapping("/api/sessions/whoami")
+        String whoAmI(@AuthenticationPrincipal Jwt jwt) {
+            return jwt.getClaimAsString("preferred_username");
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.ialegal.backend.controller;
+
+import com.ialegal.backend.dto.CursorPageDto;
+import com.ialegal.backend.dto.MessageDto;
+import com.ialegal.backend.dto.VersionStampDto;
+import com.ialegal.backend.service.N8nSessionService;
+import com.ialegal.backend.service.SessionJsonStreamer;
+import com.ialegal.backend.service.SessionService;
+import com.ialegal.backend.service.SessionStreamService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class SessionControllerCachingTest {
+
+    private static final String SESSION_ID = "john_ia-general_1700000000000_abcd1234";
+
+    private final N8nSessionService n8nSessionService = mock(N8nSessionService.class);
+    private final JwtAuthenticationToken authentication = new JwtAuthenticationToken(Jwt.withTokenValue("token")
+            .header("alg", "none")
+            .claim("preferred_username", "john")
+            .build(), List.of());
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.standaloneSetup(new SessionController(mock(SessionService.class), n8nSessionService,
+                mock(SessionStreamService.class), mock(SessionJsonStreamer.class))).build();
+        // Página antigua: todos sus ids quedan por debajo del último mensaje de la sesión
+        when(n8nSessionService.getSessionMessages(eq(SESSION_ID), eq("john"), eq("ia-general"),
+                any(), any(), any(), anyBoolean()))
+                .thenReturn(CursorPageDto.<MessageDto>builder()
+                        .items(List.of(MessageDto.builder().id(10L).build(), MessageDto.builder().id(11L).build()))
+                        .build());
+    }
+
+    @Test
+    void oldMessagePagesAreRevalidatedInsteadOfCachedAsImmutable() throws Exception {
+        version(100, 50);
+        MvcResult first = mockMvc.perform(messages().param("before", "12"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        String cacheControl = first.getResponse().getHeader(HttpHeaders.CACHE_CONTROL);
+        assertThat(cacheControl).contains("no-cache", "private").doesNotContain("immutable", "max-age");
+        String etag = first.getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(etag).isNotBlank();
+
+        mockMvc.perform(messages().param("before", "12").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        // Un mensaje que confirma tarde con un id menor cambia el contador y con él el ETag
+        version(100, 51);
+        mockMvc.perform(messages().param("before", "12").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, cacheControl));
+    }
+
+    private void version(long lastMessageId, long messageCount) {
+        when(n8nSessionService.getSessionVersion(SESSION_ID, "john", "ia-general"))
+                .thenReturn(VersionStampDto.builder().lastMessageId(lastMessageId).sessionCount(1)
+                        .messageCount(messageCount).build());
+    }
+
+    private MockHttpServletRequestBuilder messages() {
+        return get("/api/sessions/{sessionId}/messages", SESSION_ID)
+                .param("agentType", "ia-general")
+                .principal(authentication);
+    }
+}
@@ -0,0 +1,90 @@
+package com.ialegal.backend.repository;
+
+import com.ialegal.backend.support.HistoryDatabase;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Planes reales de las consultas por usuario con una distribución parecida a producción
+ * (muchos usuarios, pocas sesiones cada uno) y estadísticas actualizadas: sin forzar nada,
+ * ninguna puede recorrer entera la tabla de historial ni la de resúmenes, ni con el plan
+ * para los valores ni con el plan genérico de una sentencia preparada reutilizada.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class N8nHistoryPlanTest {
+
+    private static final String AGENT = "ia-general";
+    private static final String TABLE = "n8n_chat_histories_general";
+    private static final int USERS = 1000;
+    private static final int SESSIONS_PER_USER = 4;
+    private static final int MESSAGES_PER_SESSION = 10;
+
+    private static NamedParameterJdbcTemplate jdbcTemplate;
+    private static TransactionTemplate transactionTemplate;
+    private static MapSqlParameterSource parameters;
+
+    @BeforeAll
+    static void seed() {
+        HistoryDatabase.dataSource();
+        HistoryDatabase.reset();
+        HistoryDatabase.historyRepository(HistoryDatabase.agentRegistry());
+        jdbcTemplate = new NamedParameterJdbcTemplate(HistoryDatabase.dataSource());
+        transactionTemplate = new TransactionTemplate(HistoryDatabase.transactionManager());
+
+        String sampleSessionId = null;
+        List<Object[]> rows = new ArrayList<>();
+        for (int u = 0; u < USERS; u++) {
+            for (int s = 0; s < SESSIONS_PER_USER; s++) {
+                String sessionId = HistoryDatabase.sessionId("user_" + u, AGENT);
+                if (u == USERS / 2 && s == 0) {
+                    sampleSessionId = sessionId;
+                }
+                for (int m = 0; m < MESSAGES_PER_SESSION; m++) {
+                    rows.add(new Object[]{sessionId, m % 2 == 0 ? "human" : "ai", "consulta sobre el contrato " + m});
+                }
+            }
+            if (rows.size() >= 10_000) {
+                HistoryDatabase.insertMessages(AGENT, rows);
+                rows.clear();
+            }
+        }
+        HistoryDatabase.insertMessages(AGENT, rows);
+        HistoryDatabase.jdbcTemplate().execute("ANALYZE " + TABLE);
+        HistoryDatabase.jdbcTemplate().execute("ANALYZE " + N8nHistoryPlanCheck.SUMMARY_TABLE);
+
+        parameters = N8nHistoryPlanCheck.sampleParameters(AGENT, sampleSessionId);
+    }
+
+    static Stream<Arguments> queries() {
+        Map<String, String> queries = N8nHistoryPlanCheck.userQueries(N8nHistoryStatements.forTable(AGENT, TABLE));
+        queries.putAll(N8nHistoryPlanCheck.summaryQueries());
+        return queries.entrySet().stream()
+                .flatMap(query -> Stream.of(
+                        Arguments.of(query.getKey(), query.getValue(), false),
+                        Arguments.of(query.getKey(), query.getValue(), true)));
+    }
+
+    @ParameterizedTest(name = "{0} (generic plan: {2})")
+    @MethodSource("queries")
+    void queryUsesAnIndex(String name, String sql, boolean genericPlan) {
+        String plan = N8nHistoryPlanCheck.explain(jdbcTemplate, transactionTemplate, sql, parameters, genericPlan);
+
+        assertThat(plan)
+                .as("plan of %s", name)
+                .doesNotContain("Seq Scan on " + TABLE + " ")
+                .doesNotContain("Seq Scan on " + N8nHistoryPlanCheck.SUMMARY_TABLE + " ");
+    }
+}
@@ -0,0 +1,144 @@
+package com.ialegal.backend.repository;
+
+import com.ialegal.backend.support.HistoryDatabase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.intThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+@Testcontainers(disabledWithoutDocker = true)
+class N8nHistoryTailTest {
+
+    private static final String AGENT = "ia-general";
+
+    private N8nHistoryRepository historyRepository;
+    private N8nHistoryTail tail;
+
+    @BeforeEach
+    void setUp() {
+        HistoryDatabase.dataSource();
+        HistoryDatabase.reset();
+        historyRepository = HistoryDatabase.historyRepository(HistoryDatabase.agentRegistry());
+        tail = new N8nHistoryTail(historyRepository, Duration.ZERO);
+    }
+
+    @Test
+    void rowCommittedLateWithLowerIdIsNotSkipped() throws Exception {
+        String sessionId = HistoryDatabase.sessionId("john", AGENT);
+        try (Connection slow = HistoryDatabase.dataSource().getConnection()) {
+            slow.setAutoCommit(false);
+            long lateId = insert(slow, sessionId, "primero");
+            long earlyId = HistoryDatabase.insertMessage(AGENT, sessionId, "ai", "segundo");
+            assertThat(lateId).isLessThan(earlyId);
+
+            N8nHistoryTail.Batch first = tail.next(AGENT, 0L, 10);
+            assertThat(first.rows()).extracting(N8nMessageRow::id).containsExactly(earlyId);
+            assertThat(first.watermark()).isZero();
+            tail.commit(first);
+
+            // Con la transacción aún abierta el watermark no puede pasar de su id
+            N8nHistoryTail.Batch second = tail.next(AGENT, 0L, 10);
+            assertThat(second.rows()).isEmpty();
+            assertThat(second.watermark()).isLessThan(lateId);
+            tail.commit(second);
+
+            slow.commit();
+        }
+
+        N8nHistoryTail.Batch afterCommit = tail.next(AGENT, 0L, 10);
+        assertThat(afterCommit.rows()).extracting(N8nMessageRow::id).hasSize(1);
+        tail.commit(afterCommit);
+
+        N8nHistoryTail.Batch settled = tail.next(AGENT, 0L, 10);
+        assertThat(settled.rows()).isEmpty();
+        assertThat(settled.watermark()).isEqualTo(historyRepository.findMaxId(AGENT));
+    }
+
+    @Test
+    void processedRowsAboveTheWatermarkNeverFillTheBatch() throws Exception {
+        String sessionId = HistoryDatabase.sessionId("john", AGENT);
+        try (Connection slow = HistoryDatabase.dataSource().getConnection()) {
+            slow.setAutoCommit(false);
+            insert(slow, sessionId, "abierta");
+            for (int i = 0; i < 5; i++) {
+                HistoryDatabase.insertMessage(AGENT, sessionId, "human", "mensaje " + i);
+            }
+
+            N8nHistoryTail.Batch first = tail.next(AGENT, 0L, 3);
+            assertThat(first.rows()).hasSize(3);
+            tail.commit(first);
+
+            // El watermark sigue detrás de la transacción abierta, pero el lote avanza igual
+            N8nHistoryTail.Batch second = tail.next(AGENT, 0L, 3);
+            assertThat(second.rows()).hasSize(2);
+            assertThat(second.rows()).extracting(N8nMessageRow::id)
+                    .doesNotContainAnyElementsOf(first.rows().stream().map(N8nMessageRow::id).toList());
+            tail.commit(second);
+            slow.rollback();
+        }
+    }
+
+    @Test
+    void openTransactionAcrossManyBatchesKeepsEachReadBounded() throws Exception {
+        N8nHistoryRepository spied = spy(historyRepository);
+        tail = new N8nHistoryTail(spied, Duration.ZERO);
+        String sessionId = HistoryDatabase.sessionId("john", AGENT);
+        Set<Long> seen = new HashSet<>();
+        long openId;
+        try (Connection slow = HistoryDatabase.dataSource().getConnection()) {
+            slow.setAutoCommit(false);
+            openId = insert(slow, sessionId, "abierta");
+            for (int round = 0; round < 50; round++) {
+                List<Object[]> messages = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    messages.add(new Object[]{sessionId, "human", "mensaje " + round + "." + i});
+                }
+                HistoryDatabase.insertMessages(AGENT, messages);
+
+                N8nHistoryTail.Batch batch = tail.next(AGENT, 0L, 10);
+                assertThat(batch.rows()).hasSize(10);
+                assertThat(batch.watermark()).isLessThan(openId);
+                batch.rows().forEach(row -> assertThat(seen.add(row.id())).isTrue());
+                tail.commit(batch);
+            }
+            slow.commit();
+        }
+
+        N8nHistoryTail.Batch afterCommit = tail.next(AGENT, 0L, 10);
+        assertThat(afterCommit.rows()).extracting(N8nMessageRow::id).containsExactly(openId);
+        tail.commit(afterCommit);
+        assertThat(tail.next(AGENT, 0L, 10).watermark()).isEqualTo(historyRepository.findMaxId(AGENT));
+
+        // Cada lectura pide el límite del lote, no lo ya procesado por encima del watermark
+        verify(spied, never()).findByIdGreaterThan(eq(AGENT), anyLong(), intThat(limit -> limit > 10));
+        verify(spied, never()).findByIdRanges(eq(AGENT), any(), any(), intThat(limit -> limit > 10));
+    }
+
+    private static long insert(Connection connection, String sessionId, String content) throws Exception {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO n8n_chat_histories_general (session_id, message) VALUES (?, ?::jsonb) RETURNING id")) {
+            statement.setString(1, sessionId);
+            statement.setString(2, HistoryDatabase.message("human", content));
+            try (var resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+}
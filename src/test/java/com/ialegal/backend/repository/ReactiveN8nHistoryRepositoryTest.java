@@ -0,0 +1,132 @@
+package com.ialegal.backend.repository;
+
+import com.ialegal.backend.config.AgentRegistry;
+import com.ialegal.backend.config.ReactiveHistoryConfig;
+import com.ialegal.backend.support.HistoryDatabase;
+import io.r2dbc.pool.ConnectionPool;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import reactor.core.publisher.Flux;
+
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * La lectura R2DBC devuelve lo mismo que la de JDBC (mismas sentencias, mismo mapeo de tipos)
+ * y aplica el mismo filtro por dueño exacto de la sesión.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ReactiveN8nHistoryRepositoryTest {
+
+    private static final String AGENT = "ia-general";
+
+    private static ConnectionPool connectionPool;
+    private static N8nHistoryRepository historyRepository;
+    private static ReactiveN8nHistoryRepository reactiveRepository;
+
+    private String sessionId;
+    private final List<Long> ids = new ArrayList<>();
+
+    @BeforeAll
+    static void connect() {
+        AgentRegistry agentRegistry = HistoryDatabase.agentRegistry();
+        historyRepository = HistoryDatabase.historyRepository(agentRegistry);
+        ReactiveHistoryConfig config = new ReactiveHistoryConfig();
+        connectionPool = config.historyConnectionFactory(HistoryDatabase.r2dbcUrl(),
+                HistoryDatabase.username(), HistoryDatabase.password(), 1, 4, 30_000);
+        DatabaseClient databaseClient = config.historyDatabaseClient(connectionPool);
+        reactiveRepository = new ReactiveN8nHistoryRepository(databaseClient, agentRegistry, historyRepository);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        if (connectionPool != null) {
+            connectionPool.dispose();
+        }
+    }
+
+    @BeforeEach
+    void seed() {
+        HistoryDatabase.reset();
+        sessionId = HistoryDatabase.sessionId("john", AGENT);
+        ids.clear();
+        for (int i = 0; i < 10; i++) {
+            ids.add(HistoryDatabase.insertMessage(AGENT, sessionId, i % 2 == 0 ? "human" : "ai",
+                    "consulta " + i + " sobre el despido improcedente"));
+        }
+        // Otro usuario cuyo id empieza igual: no debe ver la sesión
+        HistoryDatabase.insertMessage(AGENT, HistoryDatabase.sessionId("john_doe", AGENT), "human", "despido");
+    }
+
+    @Test
+    void messagePagesMatchTheJdbcRepository() {
+        assertSameMessages(
+                reactiveRepository.findLatestBySessionIdAndUserId(AGENT, sessionId, "john", 4),
+                historyRepository.findLatestBySessionIdAndUserId(AGENT, sessionId, "john", 4));
+        assertSameMessages(
+                reactiveRepository.findBySessionIdAndUserIdBeforeId(AGENT, sessionId, "john", ids.get(6), 3),
+                historyRepository.findBySessionIdAndUserIdBeforeId(AGENT, sessionId, "john", ids.get(6), 3));
+        assertSameMessages(
+                reactiveRepository.findBySessionIdAndUserIdAfterId(AGENT, sessionId, "john", ids.get(2), 5),
+                historyRepository.findBySessionIdAndUserIdAfterId(AGENT, sessionId, "john", ids.get(2), 5));
+
+        List<N8nMessageRow> latest = reactiveRepository.findLatestBySessionIdAndUserId(AGENT, sessionId, "john", 4)
+                .collectList().block();
+        assertThat(latest).extracting(N8nMessageRow::id).containsExactlyElementsOf(ids.subList(6, 10));
+        assertThat(latest.get(3).content()).isEqualTo("consulta 9 sobre el despido improcedente");
+    }
+
+    @Test
+    void summariesAndSearchMatchTheJdbcRepository() {
+        List<N8nSessionSummaryRow> page = reactiveRepository
+                .findSessionSummariesPage("john", AGENT, Long.MAX_VALUE, 10).collectList().block();
+        assertThat(page).extracting(N8nSessionSummaryRow::sessionId).containsExactly(sessionId);
+        assertThat(page.get(0).messageCount()).isEqualTo(10);
+        assertThat(page.get(0).userId()).isEqualTo("john");
+        assertSameSummaries(page, historyRepository.findSessionSummariesPage("john", AGENT, Long.MAX_VALUE, 10));
+
+        List<N8nSessionSummaryRow> hits = reactiveRepository
+                .searchSessionsByContent("john", AGENT, "despido", 10).collectList().block();
+        assertThat(hits).extracting(N8nSessionSummaryRow::sessionId).containsExactly(sessionId);
+        assertThat(hits.get(0).rank()).isPositive();
+        assertSameSummaries(hits,
+                historyRepository.searchSessionsByContent("john", AGENT, "despido", Double.MAX_VALUE, "", 10));
+    }
+
+    @Test
+    void otherUsersGetNothing() {
+        assertThat(reactiveRepository.findLatestBySessionIdAndUserId(AGENT, sessionId, "john_doe", 10)
+                .collectList().block()).isEmpty();
+        assertThat(reactiveRepository.findBySessionIdAndUserIdAfterId(AGENT, sessionId, "jo", 0, 10)
+                .collectList().block()).isEmpty();
+        List<N8nSessionSummaryRow> otherUser = reactiveRepository
+                .findSessionSummariesPage("john_doe", AGENT, Long.MAX_VALUE, 10).collectList().block();
+        assertThat(otherUser).extracting(N8nSessionSummaryRow::sessionId).doesNotContain(sessionId);
+        // El dueño sale de la columna user_id, no del primer trozo del sessionId ("john")
+        assertThat(otherUser).extracting(N8nSessionSummaryRow::userId).containsOnly("john_doe");
+    }
+
+    private static void assertSameMessages(Flux<N8nMessageRow> reactive, List<N8nMessageRow> jdbc) {
+        List<N8nMessageRow> rows = reactive.collectList().block();
+        assertThat(rows).extracting(N8nMessageRow::id).containsExactlyElementsOf(
+                jdbc.stream().map(N8nMessageRow::id).toList());
+        for (int i = 0; i < rows.size(); i++) {
+            assertThat(rows.get(i).sessionId()).isEqualTo(jdbc.get(i).sessionId());
+            assertThat(rows.get(i).content()).isEqualTo(jdbc.get(i).content());
+            assertThat(rows.get(i).createdAt().truncatedTo(ChronoUnit.MILLIS))
+                    .isEqualTo(jdbc.get(i).createdAt().truncatedTo(ChronoUnit.MILLIS));
+        }
+    }
+
+    private static void assertSameSummaries(List<N8nSessionSummaryRow> reactive, List<N8nSessionSummaryRow> jdbc) {
+        assertThat(reactive).usingRecursiveFieldByFieldElementComparatorIgnoringFields("createdAt", "updatedAt")
+                .containsExactlyElementsOf(jdbc);
+    }
+}
@@ -0,0 +1,148 @@
+package com.ialegal.backend.service;
+
+import com.ialegal.backend.event.N8nHistoryChangedEvent;
+import com.ialegal.backend.event.N8nHistoryResyncEvent;
+import com.ialegal.backend.repository.N8nHistoryRepository;
+import com.ialegal.backend.support.HistoryDatabase;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Proyección a chat_sessions / chat_messages sobre Postgres: releer lotes no duplica ni
+ * desordena, los borrados (notificados o perdidos) se reflejan y una sesión que no cabe en el
+ * modelo no bloquea al resto.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ChatHistoryProjectorTest {
+
+    private static final String AGENT = "ia-general";
+
+    private JdbcTemplate jdbcTemplate;
+    private N8nHistoryRepository historyRepository;
+    private String sessionId;
+
+    @BeforeEach
+    void setUp() {
+        HistoryDatabase.dataSource();
+        HistoryDatabase.reset();
+        jdbcTemplate = HistoryDatabase.jdbcTemplate();
+        historyRepository = HistoryDatabase.historyRepository(HistoryDatabase.agentRegistry());
+
+        sessionId = HistoryDatabase.sessionId("john", AGENT);
+        for (int i = 0; i < 5; i++) {
+            HistoryDatabase.insertMessage(AGENT, sessionId, i % 2 == 0 ? "human" : "ai", "mensaje " + i);
+        }
+    }
+
+    @Test
+    void replayingFromAnOlderWatermarkDoesNotDuplicateMessages() {
+        projector().projectNewMessages();
+        assertProjected(sessionId, 5);
+
+        // Reinicio con el watermark perdido: se relee todo con un proyector nuevo
+        jdbcTemplate.update("UPDATE chat_projection_watermarks SET last_message_id = 0");
+        HistoryDatabase.insertMessage(AGENT, sessionId, "human", "mensaje 5");
+        projector().projectNewMessages();
+
+        assertProjected(sessionId, 6);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT session_name FROM chat_sessions WHERE session_id = ?", String.class, sessionId))
+                .isEqualTo(N8nSessionService.generateSessionName("mensaje 0"));
+    }
+
+    @Test
+    void deleteNotificationRemovesTheProjectedSession() {
+        ChatHistoryProjector projector = projector();
+        projector.projectNewMessages();
+
+        jdbcTemplate.update("DELETE FROM n8n_chat_histories_general WHERE session_id = ?", sessionId);
+        projector.onHistoryChanged(N8nHistoryChangedEvent.builder()
+                .operation(N8nHistoryChangedEvent.Operation.DELETE)
+                .agentType(AGENT)
+                .sessionId(sessionId)
+                .build());
+
+        assertThat(countSessions(sessionId)).isZero();
+        assertThat(countMessages(sessionId)).isZero();
+    }
+
+    @Test
+    void resyncRemovesSessionsDeletedWhileNotificationsWereDown() {
+        ChatHistoryProjector projector = projector();
+        projector.projectNewMessages();
+        // Sesión creada por la aplicación, sin mensajes de N8N: la conciliación no la toca
+        String appSession = HistoryDatabase.sessionId("john", AGENT);
+        jdbcTemplate.update("INSERT INTO chat_sessions (session_id, user_id, agent_type, session_name, created_at, " +
+                "message_count, is_active) VALUES (?, 'john', 'IA_GENERAL', 'Nueva', CURRENT_TIMESTAMP, 0, true)", appSession);
+
+        // Borrado sin notificación
+        jdbcTemplate.update("DELETE FROM n8n_chat_histories_general WHERE session_id = ?", sessionId);
+        projector.projectNewMessages();
+        assertThat(countSessions(sessionId)).isOne();
+
+        projector.onResync(new N8nHistoryResyncEvent());
+        projector.projectNewMessages();
+
+        assertThat(countSessions(sessionId)).isZero();
+        assertThat(countMessages(sessionId)).isZero();
+        assertThat(countSessions(appSession)).isOne();
+    }
+
+    @Test
+    void sessionRejectedByTheModelIsSkipped() {
+        // session_id más largo que chat_sessions.session_id (VARCHAR(100))
+        String tooLong = "john_" + AGENT + "_" + "x".repeat(120);
+        HistoryDatabase.insertMessage(AGENT, tooLong, "human", "no cabe");
+        String after = HistoryDatabase.sessionId("john", AGENT);
+        HistoryDatabase.insertMessage(AGENT, after, "human", "después");
+
+        ChatHistoryProjector projector = projector();
+        projector.projectNewMessages();
+
+        assertProjected(sessionId, 5);
+        assertProjected(after, 1);
+        assertThat(countMessages(tooLong)).isZero();
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT last_message_id FROM chat_projection_watermarks WHERE agent_type = ?", Long.class, AGENT))
+                .isEqualTo(historyRepository.findMaxId(AGENT));
+    }
+
+    private ChatHistoryProjector projector() {
+        ChatHistoryProjector projector = new ChatHistoryProjector(HistoryDatabase.agentRegistry(), historyRepository,
+                jdbcTemplate, HistoryDatabase.transactionManager(), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(projector, "batchSize", 3);
+        ReflectionTestUtils.setField(projector, "maxBatchesPerRun", 20);
+        ReflectionTestUtils.setField(projector, "safetyLagMs", 0L);
+        ReflectionTestUtils.invokeMethod(projector, "init");
+        return projector;
+    }
+
+    private void assertProjected(String session, int messages) {
+        List<Integer> orders = jdbcTemplate.queryForList(
+                "SELECT message_order FROM chat_messages WHERE session_id = ? ORDER BY source_message_id",
+                Integer.class, session);
+        assertThat(orders).containsExactlyElementsOf(IntStream.rangeClosed(1, messages).boxed().toList());
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT message_count FROM chat_sessions WHERE session_id = ?", Integer.class, session))
+                .isEqualTo(messages);
+    }
+
+    private int countSessions(String session) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM chat_sessions WHERE session_id = ?",
+                Integer.class, session);
+    }
+
+    private int countMessages(String session) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM chat_messages WHERE session_id = ?",
+                Integer.class, session);
+    }
+}
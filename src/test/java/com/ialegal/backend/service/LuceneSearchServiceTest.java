@@ -0,0 +1,112 @@
+package com.ialegal.backend.service;
+
+import com.ialegal.backend.dto.SearchHitDto;
+import com.ialegal.backend.event.N8nHistoryChangedEvent;
+import com.ialegal.backend.support.HistoryDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Índice Lucene alimentado desde las tablas de historial: filtro por dueño exacto, una fila
+ * por sesión y borrado de sesiones por notificación.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class LuceneSearchServiceTest {
+
+    private static final String AGENT = "ia-general";
+
+    @TempDir
+    Path indexPath;
+
+    private LuceneSearchService searchService;
+    private String johnSession;
+    private String johnDoeSession;
+
+    @BeforeEach
+    void setUp() {
+        HistoryDatabase.dataSource();
+        HistoryDatabase.reset();
+
+        johnSession = HistoryDatabase.sessionId("john", AGENT);
+        johnDoeSession = HistoryDatabase.sessionId("john_doe", AGENT);
+        HistoryDatabase.insertMessage(AGENT, johnSession, "human", "me han comunicado un despido disciplinario");
+        HistoryDatabase.insertMessage(AGENT, johnSession, "ai", "un despido disciplinario puede impugnarse en veinte días");
+        HistoryDatabase.insertMessage(AGENT, johnSession, "human", "¿y si el despido es improcedente?");
+        HistoryDatabase.insertMessage(AGENT, johnDoeSession, "human", "despido durante la baja médica");
+
+        searchService = new LuceneSearchService(HistoryDatabase.agentRegistry(),
+                HistoryDatabase.historyRepository(HistoryDatabase.agentRegistry()));
+        ReflectionTestUtils.setField(searchService, "indexPath", indexPath.toString());
+        ReflectionTestUtils.setField(searchService, "tailIntervalMs", 100L);
+        ReflectionTestUtils.setField(searchService, "batchSize", 2);
+        ReflectionTestUtils.setField(searchService, "safetyLagMs", 0L);
+        searchService.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        searchService.stop();
+    }
+
+    @Test
+    void ownerFilterIsExact() throws Exception {
+        // La sesión de john_doe es la última insertada: cuando aparece, todo está indexado
+        List<SearchHitDto> johnDoe = awaitHits("john_doe", "despido", hits -> !hits.isEmpty());
+        assertThat(johnDoe).extracting(SearchHitDto::getSessionId).containsExactly(johnDoeSession);
+
+        // "john_doe" empieza por "john_": con un filtro por prefijo se mezclarían
+        assertThat(searchService.search("john", AGENT, "despido", 0, 10))
+                .extracting(SearchHitDto::getSessionId).containsExactly(johnSession);
+        assertThat(searchService.search("jo", AGENT, "despido", 0, 10)).isEmpty();
+    }
+
+    @Test
+    void matchingMessagesOfASessionAreGroupedIntoOneHit() throws Exception {
+        List<SearchHitDto> hits = awaitHits("john", "despido disciplinario", found -> !found.isEmpty());
+
+        assertThat(hits).hasSize(1);
+        assertThat(hits.get(0).getSessionId()).isEqualTo(johnSession);
+        assertThat(hits.get(0).getSnippet()).contains("<b>");
+        assertThat(hits.get(0).getScore()).isPositive();
+    }
+
+    @Test
+    void deletedSessionLeavesTheIndex() throws Exception {
+        awaitHits("john_doe", "despido", hits -> !hits.isEmpty());
+
+        HistoryDatabase.jdbcTemplate().update("DELETE FROM n8n_chat_histories_general WHERE session_id = ?", johnSession);
+        searchService.onHistoryChanged(N8nHistoryChangedEvent.builder()
+                .operation(N8nHistoryChangedEvent.Operation.DELETE)
+                .agentType(AGENT)
+                .sessionId(johnSession)
+                .build());
+
+        assertThat(awaitHits("john", "despido", List::isEmpty)).isEmpty();
+        assertThat(searchService.search("john_doe", AGENT, "despido", 0, 10))
+                .extracting(SearchHitDto::getSessionId).containsExactly(johnDoeSession);
+    }
+
+    // El tailer indexa en segundo plano: se repite la búsqueda hasta que cumple la condición
+    private List<SearchHitDto> awaitHits(String userId, String query, Predicate<List<SearchHitDto>> done)
+            throws InterruptedException {
+        List<SearchHitDto> hits = List.of();
+        for (int attempt = 0; attempt < 100; attempt++) {
+            hits = searchService.search(userId, AGENT, query, 0, 10);
+            if (done.test(hits)) {
+                return hits;
+            }
+            Thread.sleep(100);
+        }
+        return hits;
+    }
+}
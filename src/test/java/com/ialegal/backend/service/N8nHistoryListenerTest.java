@@ -0,0 +1,127 @@
+package com.ialegal.backend.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ialegal.backend.event.N8nHistoryChangedEvent;
+import com.ialegal.backend.event.N8nHistoryResyncEvent;
+import com.ialegal.backend.support.HistoryDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * LISTEN real sobre los triggers de V3: resync tras perder la conexión y orden de los eventos
+ * de cada sesión a través de los hilos de publicación.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class N8nHistoryListenerTest {
+
+    private static final String AGENT = "ia-general";
+
+    private final BlockingQueue<Published> published = new LinkedBlockingQueue<>();
+    private N8nHistoryListener listener;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        HistoryDatabase.dataSource();
+        HistoryDatabase.reset();
+        HistoryDatabase.historyRepository(HistoryDatabase.agentRegistry());
+
+        listener = new N8nHistoryListener(HistoryDatabase.dataSource(),
+                event -> published.add(new Published(event, Thread.currentThread().getName())),
+                new ObjectMapper());
+        ReflectionTestUtils.setField(listener, "enabled", true);
+        ReflectionTestUtils.setField(listener, "pollTimeoutMs", 200);
+        ReflectionTestUtils.setField(listener, "reconnectDelayMs", 100L);
+        ReflectionTestUtils.setField(listener, "socketTimeoutSeconds", 5);
+        ReflectionTestUtils.setField(listener, "dispatchThreads", 4);
+        ReflectionTestUtils.setField(listener, "dispatchQueueCapacity", 1000);
+        listener.start();
+        assertThat(next()).isInstanceOf(N8nHistoryResyncEvent.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        listener.stop();
+    }
+
+    @Test
+    void lostConnectionIsFollowedByAResync() throws Exception {
+        // Corta la conexión del LISTEN desde el servidor, como una caída de red
+        Integer terminated = HistoryDatabase.jdbcTemplate().queryForObject(
+                "SELECT COUNT(pg_terminate_backend(pid))::int FROM pg_stat_activity " +
+                "WHERE pid <> pg_backend_pid() AND (query LIKE 'LISTEN%' OR query = 'SELECT 1')", Integer.class);
+        assertThat(terminated).isPositive();
+
+        assertThat(next()).isInstanceOf(N8nHistoryResyncEvent.class);
+
+        // Con la conexión nueva vuelven a llegar notificaciones
+        String sessionId = HistoryDatabase.sessionId("john", AGENT);
+        long id = HistoryDatabase.insertMessage(AGENT, sessionId, "human", "hola");
+        Object event = next();
+        assertThat(event).isInstanceOf(N8nHistoryChangedEvent.class);
+        assertThat(((N8nHistoryChangedEvent) event).getMessageId()).isEqualTo(id);
+    }
+
+    @Test
+    void eventsOfASessionKeepTheirOrderOnOneDispatchThread() throws Exception {
+        List<String> sessionIds = new ArrayList<>();
+        for (int s = 0; s < 8; s++) {
+            sessionIds.add(HistoryDatabase.sessionId("user" + s, AGENT));
+        }
+        Map<String, List<Long>> inserted = new HashMap<>();
+        for (int i = 0; i < 25; i++) {
+            for (String sessionId : sessionIds) {
+                inserted.computeIfAbsent(sessionId, id -> new ArrayList<>())
+                        .add(HistoryDatabase.insertMessage(AGENT, sessionId, "human", "mensaje " + i));
+            }
+        }
+        for (String sessionId : sessionIds) {
+            HistoryDatabase.jdbcTemplate().update("DELETE FROM n8n_chat_histories_general WHERE session_id = ?", sessionId);
+        }
+
+        Map<String, List<Long>> received = new HashMap<>();
+        Map<String, List<String>> threads = new HashMap<>();
+        Map<String, Boolean> deletedLast = new HashMap<>();
+        int expected = sessionIds.size() * 26;
+        for (int i = 0; i < expected; i++) {
+            Published next = published.poll(10, TimeUnit.SECONDS);
+            assertThat(next).as("event %d of %d", i, expected).isNotNull();
+            N8nHistoryChangedEvent event = (N8nHistoryChangedEvent) next.event();
+            threads.computeIfAbsent(event.getSessionId(), id -> new ArrayList<>()).add(next.thread());
+            if (event.getOperation() == N8nHistoryChangedEvent.Operation.DELETE) {
+                deletedLast.put(event.getSessionId(), true);
+            } else {
+                assertThat(deletedLast).doesNotContainKey(event.getSessionId());
+                received.computeIfAbsent(event.getSessionId(), id -> new ArrayList<>()).add(event.getMessageId());
+            }
+        }
+
+        for (String sessionId : sessionIds) {
+            assertThat(received.get(sessionId)).containsExactlyElementsOf(inserted.get(sessionId));
+            assertThat(deletedLast).containsKey(sessionId);
+            assertThat(threads.get(sessionId)).allMatch(thread -> thread.startsWith("n8n-history-dispatch-"))
+                    .containsOnly(threads.get(sessionId).get(0));
+        }
+    }
+
+    private Object next() throws InterruptedException {
+        Published next = published.poll(10, TimeUnit.SECONDS);
+        assertThat(next).isNotNull();
+        return next.event();
+    }
+
+    private record Published(Object event, String thread) {
+    }
+}
@@ -0,0 +1,159 @@
+package com.ialegal.backend.service;
+
+import com.ialegal.backend.config.AgentRegistry;
+import com.ialegal.backend.dto.SearchHitDto;
+import com.ialegal.backend.repository.N8nHistoryRepository;
+import com.ialegal.backend.support.HistoryDatabase;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Búsqueda semántica frente al ILIKE sobre el JSON del mensaje al que reemplaza, con un usuario
+ * grande (recorrido HNSW) y otro pequeño (recorrido exacto). Comprueba además que ambos caminos
+ * encuentran la sesión sembrada y no devuelven sesiones de otros usuarios.
+ * Se ejecuta con mvn test -Pbenchmark.
+ */
+@Tag("benchmark")
+@Testcontainers(disabledWithoutDocker = true)
+@Slf4j
+class SemanticSearchBenchmarkTest {
+
+    private static final String AGENT = "ia-general";
+    private static final String TABLE = "n8n_chat_histories_general";
+    private static final String PLANTED = "rescisión anticipada del contrato de arrendamiento por impago";
+    private static final String QUERY = "rescisión del arrendamiento por impago";
+
+    private static final int BIG_OWNER_SESSIONS = 300;
+    private static final int SMALL_OWNERS = 200;
+    private static final int MESSAGES_PER_SESSION = 100;
+    private static final int ITERATIONS = 50;
+
+    private static final String[] VOCABULARY = {
+            "contrato", "cláusula", "despido", "indemnización", "plazo", "demanda", "consumidor", "garantía",
+            "salario", "vacaciones", "preaviso", "finiquito", "reclamación", "tribunal", "sentencia", "recurso",
+            "factura", "devolución", "producto", "servicio", "empresa", "trabajador", "jornada", "convenio",
+            "herencia", "testamento", "sociedad", "acciones", "hipoteca", "préstamo", "intereses", "aval"};
+
+    private static SemanticSearchService semanticSearch;
+    private static JdbcTemplate jdbcTemplate;
+    private static String bigOwnerPlantedSession;
+    private static String smallOwnerPlantedSession;
+
+    @BeforeAll
+    static void seed() {
+        HistoryDatabase.dataSource();
+        HistoryDatabase.reset();
+        jdbcTemplate = HistoryDatabase.jdbcTemplate();
+        AgentRegistry agentRegistry = HistoryDatabase.agentRegistry();
+        N8nHistoryRepository historyRepository = HistoryDatabase.historyRepository(agentRegistry);
+
+        Random random = new Random(42);
+        List<Object[]> rows = new ArrayList<>();
+        for (int s = 0; s < BIG_OWNER_SESSIONS; s++) {
+            String sessionId = HistoryDatabase.sessionId("big.owner", AGENT);
+            if (s == BIG_OWNER_SESSIONS / 2) {
+                bigOwnerPlantedSession = sessionId;
+            }
+            addSession(rows, sessionId, random, sessionId.equals(bigOwnerPlantedSession));
+            flush(rows);
+        }
+        for (int u = 0; u < SMALL_OWNERS; u++) {
+            String sessionId = HistoryDatabase.sessionId("user" + u, AGENT);
+            if (u == 7) {
+                smallOwnerPlantedSession = sessionId;
+            }
+            // La frase también aparece en sesiones de otros usuarios: no deben salir en los resultados
+            addSession(rows, sessionId, random, u == 7 || u % 20 == 0);
+            flush(rows);
+        }
+        HistoryDatabase.insertMessages(AGENT, rows);
+        jdbcTemplate.execute("ANALYZE " + TABLE);
+
+        semanticSearch = new SemanticSearchService(agentRegistry, historyRepository, new HashingTextEmbedder(),
+                jdbcTemplate, HistoryDatabase.transactionManager());
+        ReflectionTestUtils.setField(semanticSearch, "batchSize", 1000);
+        ReflectionTestUtils.setField(semanticSearch, "maxBatchesPerRun", 1000);
+        ReflectionTestUtils.setField(semanticSearch, "candidatesPerSession", 5);
+        ReflectionTestUtils.setField(semanticSearch, "efSearch", 100);
+        ReflectionTestUtils.setField(semanticSearch, "exactScanMaxRows", 20000);
+        ReflectionTestUtils.invokeMethod(semanticSearch, "init");
+        semanticSearch.embedNewMessages();
+        jdbcTemplate.execute("ANALYZE n8n_message_embeddings");
+    }
+
+    @Test
+    void semanticSearchAgainstIlike() {
+        // El usuario grande supera exact-scan-max-rows (HNSW); el pequeño se resuelve con el recorrido exacto
+        List<SearchHitDto> bigHits = semanticSearch.search("big.owner", AGENT, QUERY, 10);
+        List<SearchHitDto> smallHits = semanticSearch.search("user7", AGENT, QUERY, 10);
+
+        assertThat(bigHits).extracting(SearchHitDto::getSessionId).contains(bigOwnerPlantedSession)
+                .allMatch(sessionId -> sessionId.startsWith("big.owner_" + AGENT + "_"));
+        assertThat(smallHits).extracting(SearchHitDto::getSessionId).first().isEqualTo(smallOwnerPlantedSession);
+        assertThat(smallHits).extracting(SearchHitDto::getSessionId)
+                .allMatch(sessionId -> sessionId.startsWith("user7_" + AGENT + "_"));
+
+        report("semantic, big owner (HNSW)", () -> semanticSearch.search("big.owner", AGENT, QUERY, 10));
+        report("ILIKE, big owner", () -> ilike("big.owner", "arrendamiento"));
+        report("semantic, small owner (exact)", () -> semanticSearch.search("user7", AGENT, QUERY, 10));
+        report("ILIKE, small owner", () -> ilike("user7", "arrendamiento"));
+    }
+
+    // La búsqueda anterior: prefijo del session_id y patrón sobre el contenido del JSON
+    private static List<String> ilike(String userId, String term) {
+        return jdbcTemplate.queryForList("SELECT DISTINCT session_id FROM " + TABLE + " " +
+                        "WHERE session_id LIKE CONCAT(?, '_%') AND message->>'content' ILIKE CONCAT('%', ?, '%') " +
+                        "LIMIT 10",
+                String.class, userId, term);
+    }
+
+    private static void report(String name, Supplier<?> query) {
+        for (int i = 0; i < 5; i++) {
+            query.get();
+        }
+        long[] nanos = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            query.get();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        log.info("{}: p50 {} ms, p95 {} ms", name,
+                String.format("%.2f", nanos[ITERATIONS / 2] / 1e6), String.format("%.2f", nanos[ITERATIONS * 95 / 100] / 1e6));
+    }
+
+    private static void addSession(List<Object[]> rows, String sessionId, Random random, boolean planted) {
+        for (int m = 0; m < MESSAGES_PER_SESSION; m++) {
+            String content = planted && m == MESSAGES_PER_SESSION / 2 ? PLANTED : sentence(random);
+            rows.add(new Object[]{sessionId, m % 2 == 0 ? "human" : "ai", content});
+        }
+    }
+
+    private static void flush(List<Object[]> rows) {
+        if (rows.size() >= 10_000) {
+            HistoryDatabase.insertMessages(AGENT, rows);
+            rows.clear();
+        }
+    }
+
+    private static String sentence(Random random) {
+        StringBuilder sentence = new StringBuilder();
+        for (int w = 0; w < 12; w++) {
+            sentence.append(VOCABULARY[random.nextInt(VOCABULARY.length)]).append(' ');
+        }
+        return sentence.toString().trim();
+    }
+}
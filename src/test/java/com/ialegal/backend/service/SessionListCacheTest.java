@@ -0,0 +1,60 @@
+package com.ialegal.backend.service;
+
+import com.ialegal.backend.event.N8nHistoryChangedEvent;
+import com.ialegal.backend.event.N8nHistoryResyncEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SessionListCacheTest {
+
+    private final SessionListCache cache = new SessionListCache(new SimpleMeterRegistry(), 100, 600_000);
+
+    @Test
+    void invalidateDropsEveryVariantOfTheOwnerOnly() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("john", "ia-general", "all", loads::incrementAndGet);
+        cache.get("john", "ia-general", "version", loads::incrementAndGet);
+        cache.get("john_doe", "ia-general", "all", loads::incrementAndGet);
+
+        cache.invalidate("john", "ia-general");
+
+        cache.get("john", "ia-general", "all", loads::incrementAndGet);
+        cache.get("john", "ia-general", "version", loads::incrementAndGet);
+        cache.get("john_doe", "ia-general", "all", loads::incrementAndGet);
+        assertThat(loads.get()).isEqualTo(5);
+    }
+
+    @Test
+    void historyChangeInvalidatesTheExactSessionOwner() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("john", "ia-general", "all", loads::incrementAndGet);
+        cache.get("john_doe", "ia-general", "all", loads::incrementAndGet);
+
+        cache.onHistoryChanged(N8nHistoryChangedEvent.builder()
+                .operation(N8nHistoryChangedEvent.Operation.INSERT)
+                .agentType("ia-general")
+                .sessionId("john_doe_ia-general_1700000000000_abcd1234")
+                .build());
+
+        cache.get("john", "ia-general", "all", loads::incrementAndGet);
+        cache.get("john_doe", "ia-general", "all", loads::incrementAndGet);
+        assertThat(loads.get()).isEqualTo(3);
+    }
+
+    @Test
+    void resyncInvalidatesEverything() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("john", "ia-general", "all", loads::incrementAndGet);
+        cache.get("maria", "ia-laboral", "all", loads::incrementAndGet);
+
+        cache.onResync(new N8nHistoryResyncEvent());
+
+        cache.get("john", "ia-general", "all", loads::incrementAndGet);
+        cache.get("maria", "ia-laboral", "all", loads::incrementAndGet);
+        assertThat(loads.get()).isEqualTo(4);
+    }
+}
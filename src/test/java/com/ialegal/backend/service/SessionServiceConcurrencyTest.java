@@ -0,0 +1,158 @@
+package com.ialegal.backend.service;
+
+import com.ialegal.backend.dto.AddMessageRequest;
+import com.ialegal.backend.repository.ChatMessageRepository;
+import com.ialegal.backend.repository.ChatSessionRepository;
+import com.ialegal.backend.support.HistoryDatabase;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Altas concurrentes de mensajes en una misma sesión a través de SessionService.addMessage con
+ * JPA real sobre Postgres: el contador de la sesión (ChatSessionRepository.incrementMessageCount)
+ * debe dar a cada mensaje un orden distinto y sin huecos, y terminar igual al número de altas.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@SpringJUnitConfig(SessionServiceConcurrencyTest.Config.class)
+class SessionServiceConcurrencyTest {
+
+    private static final String USER = "john";
+    private static final int THREADS = 16;
+    private static final int MESSAGES_PER_THREAD = 25;
+
+    @Autowired
+    private SessionService sessionService;
+
+    private JdbcTemplate jdbcTemplate;
+    private String sessionId;
+
+    @BeforeEach
+    void setUp() {
+        HistoryDatabase.reset();
+        jdbcTemplate = HistoryDatabase.jdbcTemplate();
+        sessionId = HistoryDatabase.sessionId(USER, "ia-general");
+        jdbcTemplate.update("INSERT INTO chat_sessions (session_id, user_id, agent_type, session_name, " +
+                        "created_at, updated_at, message_count, is_active) " +
+                        "VALUES (?, ?, 'IA_GENERAL', 'Concurrencia', CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 0, true)",
+                sessionId, USER);
+    }
+
+    @Test
+    void concurrentAppendsGetUniqueContiguousOrders() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<Integer>>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    List<Integer> orders = new ArrayList<>();
+                    for (int m = 0; m < MESSAGES_PER_THREAD; m++) {
+                        orders.add(sessionService.addMessage(sessionId, USER, request(thread, m)).getMessageOrder());
+                    }
+                    return orders;
+                }));
+            }
+            start.countDown();
+
+            List<Integer> returned = new ArrayList<>();
+            for (Future<List<Integer>> result : results) {
+                returned.addAll(result.get(2, TimeUnit.MINUTES));
+            }
+
+            int total = THREADS * MESSAGES_PER_THREAD;
+            List<Integer> expected = IntStream.rangeClosed(1, total).boxed().toList();
+            assertThat(returned).containsExactlyInAnyOrderElementsOf(expected);
+            assertThat(jdbcTemplate.queryForList(
+                    "SELECT message_order FROM chat_messages WHERE session_id = ? ORDER BY message_order",
+                    Integer.class, sessionId)).containsExactlyElementsOf(expected);
+            assertThat(jdbcTemplate.queryForObject(
+                    "SELECT message_count FROM chat_sessions WHERE session_id = ?", Integer.class, sessionId))
+                    .isEqualTo(total);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void appendToAnotherUsersSessionIsRejectedWithoutCounting() {
+        assertThatThrownBy(() -> sessionService.addMessage(sessionId, "john_doe", request(0, 0)))
+                .hasMessageContaining("access denied");
+
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT message_count FROM chat_sessions WHERE session_id = ?", Integer.class, sessionId)).isZero();
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM chat_messages WHERE session_id = ?", Integer.class, sessionId)).isZero();
+    }
+
+    private static AddMessageRequest request(int thread, int message) {
+        return AddMessageRequest.builder()
+                .content("mensaje " + message + " del hilo " + thread)
+                .isUser(message % 2 == 0)
+                .build();
+    }
+
+    // JPA como en MultiDataSourceConfig, sobre el contenedor y solo con los repositorios de sesiones
+    @Configuration
+    @EnableTransactionManagement
+    @EnableJpaRepositories(basePackageClasses = ChatSessionRepository.class,
+            includeFilters = @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE,
+                    classes = {ChatSessionRepository.class, ChatMessageRepository.class}))
+    @Import(SessionService.class)
+    static class Config {
+
+        @Bean
+        DataSource dataSource() {
+            return HistoryDatabase.dataSource();
+        }
+
+        @Bean
+        LocalContainerEntityManagerFactoryBean entityManagerFactory(DataSource dataSource) {
+            LocalContainerEntityManagerFactoryBean entityManagerFactory = new LocalContainerEntityManagerFactoryBean();
+            entityManagerFactory.setDataSource(dataSource);
+            entityManagerFactory.setPackagesToScan("com.ialegal.backend.entity");
+            entityManagerFactory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+            Properties properties = new Properties();
+            properties.setProperty("hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect");
+            properties.setProperty("hibernate.hbm2ddl.auto", "none");
+            entityManagerFactory.setJpaProperties(properties);
+            return entityManagerFactory;
+        }
+
+        @Bean
+        PlatformTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
+            return new JpaTransactionManager(entityManagerFactory);
+        }
+    }
+}
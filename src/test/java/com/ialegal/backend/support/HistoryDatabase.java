@@ -0,0 +1,181 @@
+package com.ialegal.backend.support;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.ialegal.backend.config.AgentRegistry;
+import com.ialegal.backend.repository.N8nHistoryRepository;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Postgres con pgvector en un contenedor compartido por todos los tests de la JVM, con las
+ * tablas de historial tal como las crea N8N y las migraciones de Flyway aplicadas.
+ * Las clases que lo usan llevan @Testcontainers(disabledWithoutDocker = true).
+ */
+public final class HistoryDatabase {
+
+    // Mismos agentes y tablas que app.agents en application.yml
+    public static final Map<String, String> AGENT_TABLES = new LinkedHashMap<>();
+
+    static {
+        AGENT_TABLES.put("ia-contratos", "n8n_chat_histories_contratos");
+        AGENT_TABLES.put("ia-laboral", "n8n_chat_histories_laboral");
+        AGENT_TABLES.put("ia-defensa-consumidor", "n8n_chat_histories_defensa");
+        AGENT_TABLES.put("ia-general", "n8n_chat_histories_general");
+    }
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static PostgreSQLContainer<?> container;
+    private static HikariDataSource dataSource;
+
+    private HistoryDatabase() {
+    }
+
+    public static synchronized DataSource dataSource() {
+        if (dataSource == null) {
+            container = new PostgreSQLContainer<>(DockerImageName.parse("pgvector/pgvector:pg16")
+                    .asCompatibleSubstituteFor("postgres"));
+            container.start();
+
+            HikariConfig config = new HikariConfig();
+            config.setJdbcUrl(container.getJdbcUrl());
+            config.setUsername(container.getUsername());
+            config.setPassword(container.getPassword());
+            config.setMaximumPoolSize(32);
+            dataSource = new HikariDataSource(config);
+
+            createN8nTables();
+            Flyway.configure()
+                    .dataSource(dataSource)
+                    .locations("classpath:db/migration")
+                    .baselineOnMigrate(true)
+                    .baselineVersion("0")
+                    .load()
+                    .migrate();
+        }
+        return dataSource;
+    }
+
+    public static JdbcTemplate jdbcTemplate() {
+        return new JdbcTemplate(dataSource());
+    }
+
+    public static DataSourceTransactionManager transactionManager() {
+        return new DataSourceTransactionManager(dataSource());
+    }
+
+    public static String jdbcUrl() {
+        dataSource();
+        return container.getJdbcUrl();
+    }
+
+    public static String r2dbcUrl() {
+        dataSource();
+        return "r2dbc:postgresql://" + container.getHost() + ":" + container.getMappedPort(5432)
+                + "/" + container.getDatabaseName();
+    }
+
+    public static String username() {
+        dataSource();
+        return container.getUsername();
+    }
+
+    public static String password() {
+        dataSource();
+        return container.getPassword();
+    }
+
+    public static AgentRegistry agentRegistry() {
+        MockEnvironment environment = new MockEnvironment();
+        AGENT_TABLES.forEach((id, table) -> {
+            environment.setProperty("app.agents." + id + ".id", id);
+            environment.setProperty("app.agents." + id + ".table", table);
+            environment.setProperty("app.agents." + id + ".webhook-url", "http://localhost/" + id);
+        });
+        return new AgentRegistry(environment);
+    }
+
+    // Repositorio como lo arma Spring: con init() se adjuntan triggers e índices a las tablas
+    public static N8nHistoryRepository historyRepository(AgentRegistry agentRegistry) {
+        N8nHistoryRepository repository = new N8nHistoryRepository(
+                new NamedParameterJdbcTemplate(dataSource()), agentRegistry);
+        ReflectionTestUtils.setField(repository, "fetchSize", 500);
+        ReflectionTestUtils.invokeMethod(repository, "init");
+        return repository;
+    }
+
+    // Deja vacías las tablas de historial y todo lo derivado de ellas
+    public static void reset() {
+        JdbcTemplate jdbcTemplate = jdbcTemplate();
+        List<String> tables = new ArrayList<>(AGENT_TABLES.values());
+        tables.add("n8n_session_summaries");
+        tables.add("chat_messages");
+        tables.add("chat_sessions");
+        tables.add("chat_projection_watermarks");
+        if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT to_regclass('n8n_message_embeddings') IS NOT NULL", Boolean.class))) {
+            tables.add("n8n_message_embeddings");
+            tables.add("n8n_embedding_watermarks");
+        }
+        jdbcTemplate.execute("TRUNCATE " + String.join(", ", tables) + " RESTART IDENTITY CASCADE");
+    }
+
+    public static String sessionId(String userId, String agentType) {
+        return userId + "_" + agentType + "_" + System.currentTimeMillis() + "_"
+                + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    // Fila del historial con el formato de mensaje de N8N; devuelve su id
+    public static long insertMessage(String agentType, String sessionId, String type, String content) {
+        return jdbcTemplate().queryForObject(
+                "INSERT INTO " + AGENT_TABLES.get(agentType) + " (session_id, message, created_at) " +
+                "VALUES (?, ?::jsonb, CURRENT_TIMESTAMP) RETURNING id",
+                Long.class, sessionId, message(type, content));
+    }
+
+    public static void insertMessages(String agentType, List<Object[]> sessionTypeContent) {
+        List<Object[]> rows = new ArrayList<>(sessionTypeContent.size());
+        for (Object[] row : sessionTypeContent) {
+            rows.add(new Object[]{row[0], message((String) row[1], (String) row[2])});
+        }
+        jdbcTemplate().batchUpdate("INSERT INTO " + AGENT_TABLES.get(agentType) + " (session_id, message, created_at) " +
+                "VALUES (?, ?::jsonb, CURRENT_TIMESTAMP)", rows);
+    }
+
+    public static String message(String type, String content) {
+        ObjectNode message = OBJECT_MAPPER.createObjectNode();
+        message.put("type", type);
+        message.put("content", content);
+        message.putObject("additional_kwargs");
+        message.putObject("response_metadata");
+        return message.toString();
+    }
+
+    // Esquema de PostgresChatMemory de N8N más created_at, que el backend lee
+    private static void createN8nTables() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        for (String table : AGENT_TABLES.values()) {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + table + " (" +
+                    "id SERIAL PRIMARY KEY, " +
+                    "session_id VARCHAR(255) NOT NULL, " +
+                    "message JSONB NOT NULL, " +
+                    "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.ialegal.backend.util;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Bytes asignados y tiempo por fila: el camino anterior (ObjectMapper.readValue a una clase con
+ * additional_kwargs y response_metadata como mapas, una vez por cada getter que se consultaba:
+ * tipo, contenido y nombre de la sesión) frente a una sola pasada de N8nMessageParser.
+ * Se ejecuta con mvn test -Pbenchmark.
+ */
+@Tag("benchmark")
+@Slf4j
+class N8nMessageParserBenchmarkTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int ROWS = 2_000;
+    private static final int ROUNDS = 20;
+    // Parseos completos por fila en el camino anterior
+    private static final int LEGACY_PARSES_PER_ROW = 3;
+
+    @Test
+    void streamingParserAgainstObjectMapper() throws Exception {
+        List<String> messages = messages(new Random(42));
+
+        // Mismo resultado en ambos caminos
+        for (String message : messages) {
+            LegacyMessageContent legacy = OBJECT_MAPPER.readValue(message, LegacyMessageContent.class);
+            N8nMessageParser.MessageContent parsed = N8nMessageParser.parse(message);
+            assertThat(parsed.getType()).isEqualTo(legacy.getType());
+            assertThat(parsed.getContent()).isEqualTo(legacy.getContent());
+        }
+
+        Result legacy = measure(messages, message -> {
+            try {
+                LegacyMessageContent parsed = null;
+                for (int i = 0; i < LEGACY_PARSES_PER_ROW; i++) {
+                    parsed = OBJECT_MAPPER.readValue(message, LegacyMessageContent.class);
+                }
+                return parsed.getContent();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Result streaming = measure(messages, message -> N8nMessageParser.parse(message).getContent());
+
+        log.info("ObjectMapper x{}: {} bytes/row, {} us/row", LEGACY_PARSES_PER_ROW,
+                Math.round(legacy.bytesPerRow()), String.format("%.2f", legacy.microsPerRow()));
+        log.info("N8nMessageParser x1: {} bytes/row, {} us/row",
+                Math.round(streaming.bytesPerRow()), String.format("%.2f", streaming.microsPerRow()));
+        assertThat(streaming.bytesPerRow()).isLessThan(legacy.bytesPerRow() / LEGACY_PARSES_PER_ROW);
+    }
+
+    private static Result measure(List<String> messages, Function<String, String> parse) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long checksum = 0;
+        // Calentamiento
+        for (int round = 0; round < ROUNDS; round++) {
+            for (String message : messages) {
+                checksum += parse.apply(message).length();
+            }
+        }
+        long bytesBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (String message : messages) {
+                checksum += parse.apply(message).length();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = threads.getCurrentThreadAllocatedBytes() - bytesBefore;
+        assertThat(checksum).isPositive();
+        double rows = (double) ROWS * ROUNDS;
+        return new Result(bytes / rows, nanos / rows / 1000);
+    }
+
+    // Mensajes como los que guarda N8N: los de la IA con metadatos de uso y llamadas a herramientas
+    private static List<String> messages(Random random) {
+        List<String> messages = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            boolean ai = i % 2 == 1;
+            ObjectNode message = OBJECT_MAPPER.createObjectNode();
+            message.put("type", ai ? "ai" : "human");
+            message.put("content", text(random, ai ? 120 : 25));
+            ObjectNode kwargs = message.putObject("additional_kwargs");
+            ObjectNode metadata = message.putObject("response_metadata");
+            if (ai) {
+                ArrayNode toolCalls = message.putArray("tool_calls");
+                for (int t = 0; t < 2; t++) {
+                    ObjectNode call = toolCalls.addObject();
+                    call.put("id", "call_" + random.nextInt(1_000_000));
+                    call.put("name", "buscar_normativa");
+                    call.putObject("args").put("consulta", text(random, 8));
+                }
+                kwargs.put("refusal", (String) null);
+                metadata.put("model_name", "gpt-4o-mini");
+                metadata.put("finish_reason", "stop");
+                ObjectNode usage = metadata.putObject("token_usage");
+                usage.put("prompt_tokens", random.nextInt(4000));
+                usage.put("completion_tokens", random.nextInt(800));
+                usage.put("total_tokens", random.nextInt(4800));
+                message.putArray("invalid_tool_calls");
+            }
+            messages.add(message.toString());
+        }
+        return messages;
+    }
+
+    private static String text(Random random, int words) {
+        String[] vocabulary = {"contrato", "cláusula", "despido", "indemnización", "plazo", "demanda",
+                "consumidor", "garantía", "artículo", "ley", "tribunal", "sentencia"};
+        StringBuilder text = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            text.append(vocabulary[random.nextInt(vocabulary.length)]).append(' ');
+        }
+        return text.toString().trim();
+    }
+
+    private record Result(double bytesPerRow, double microsPerRow) {
+    }
+
+    // MessageContent tal como lo deserializaba la entidad antes del extractor de streaming
+    @Data
+    @NoArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class LegacyMessageContent {
+        @JsonProperty("type")
+        private String type;
+
+        @JsonProperty("content")
+        private String content;
+
+        @JsonProperty("additional_kwargs")
+        private Map<String, Object> additionalKwargs;
+
+        @JsonProperty("response_metadata")
+        private Map<String, Object> responseMetadata;
+    }
+}
@@ -0,0 +1,28 @@
+package com.ialegal.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SessionIdsTest {
+
+    @Test
+    void ownerIsTheTextBeforeTheAgentSegment() {
+        assertThat(SessionIds.userIdOf("john_doe_ia-general_1700000000000_ab12cd34", "ia-general"))
+                .isEqualTo("john_doe");
+    }
+
+    @Test
+    void prefixOfAnotherUserIsNotTheOwner() {
+        String sessionId = "john_doe_ia-general_1700000000000_ab12cd34";
+
+        assertThat(SessionIds.isOwnedBy(sessionId, "ia-general", "john")).isFalse();
+        assertThat(SessionIds.isOwnedBy(sessionId, "ia-general", "john_doe")).isTrue();
+    }
+
+    @Test
+    void sessionWithoutAgentSegmentFallsBackToFirstPart() {
+        assertThat(SessionIds.userIdOf("legacy_session", "ia-general")).isEqualTo("legacy");
+        assertThat(SessionIds.userIdOf("legacy", "ia-general")).isEqualTo("legacy");
+    }
+}